@@ -0,0 +1,101 @@
+package panda.reppy.benchmarks;
+
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Member;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import panda.reppy.commands.ConditionalCommand;
+import panda.reppy.flags.CommandCondition;
+import panda.reppy.flags.SnowflakeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConditionBenchmark {
+
+    /**
+     * Compares the compiled conditions of a ConditionalCommand with checking every condition in
+     * turn. The member holds ten roles and, in the worst case, matches none of the conditions.
+     * Run with -prof gc to see the allocations: a compiled check copies the roles once to probe
+     * them and once more to read the permissions, about 640 bytes for a denied member and 184
+     * for one matched by role, the same for every condition count.
+     */
+
+    private static final long MEMBER_BASE = 700_000_000_000_000_000L;
+    private static final long ROLE_BASE = 600_000_000_000_000_000L;
+
+    @Param({"4", "64", "512"})
+    public int conditions;
+
+    private List<CommandCondition> conditionList;
+    private ConditionalCommand command;
+    private Member matchingMember;
+    private Member deniedMember;
+
+    @Setup
+    public void setUp() {
+        conditionList = new ArrayList<>();
+        for (int i = 0; i < conditions; i++) {
+            if (i % 2 == 0) {
+                conditionList.add(new CommandCondition(MEMBER_BASE + i, SnowflakeType.MEMBER_ID));
+            } else {
+                conditionList.add(new CommandCondition(ROLE_BASE + i, SnowflakeType.ROLE_ID));
+            }
+        }
+        conditionList.add(new CommandCondition(Permission.MANAGE_SERVER, Permission.MANAGE_THREADS));
+
+        command = new ConditionalCommand("bench", "Benchmark command.",
+                conditionList.toArray(new CommandCondition[0])) {};
+
+        long[] roleIds = new long[10];
+        long[] permissions = new long[10];
+        for (int i = 0; i < roleIds.length; i++) {
+            roleIds[i] = ROLE_BASE + conditions + i;
+        }
+        deniedMember = FakeEvents.member(MEMBER_BASE - 1, roleIds, permissions);
+
+        // Matches through its last role, after the member id probe misses.
+        long[] matchingRoles = roleIds.clone();
+        matchingRoles[9] = ROLE_BASE + conditions - 1;
+        matchingMember = FakeEvents.member(MEMBER_BASE - 2, matchingRoles, permissions);
+    }
+
+    @Benchmark
+    public boolean compiledDenied() {
+        return command.hasPermission(deniedMember);
+    }
+
+    @Benchmark
+    public boolean compiledMatching() {
+        return command.hasPermission(matchingMember);
+    }
+
+    @Benchmark
+    public boolean loopDenied() {
+        return loop(deniedMember);
+    }
+
+    @Benchmark
+    public boolean loopMatching() {
+        return loop(matchingMember);
+    }
+
+    private boolean loop(Member member) {
+        for (CommandCondition condition : conditionList) {
+            if (condition.meetsCondition(member)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+package panda.reppy.benchmarks;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class FakeEvents {
+
+    /**
+     * FakeEvents builds JDA events and entities without a gateway connection. The entities are
+     * proxies that answer the getters the bot reads, every other call returns a default value.
+     */
+
+    private static final JDA JDA_STUB = stub(JDA.class, 0, Collections.emptyMap());
+
+    private FakeEvents() {}
+
+    static MessageReceivedEvent messageReceived(long messageId, long channelId, long authorId, String content) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getChannel", stub(MessageChannel.class, channelId, Collections.emptyMap()));
+        answers.put("getAuthor", stub(User.class, authorId, Collections.emptyMap()));
+        answers.put("getContentRaw", content);
+        answers.put("getContentDisplay", content);
+
+        return new MessageReceivedEvent(JDA_STUB, 0, stub(Message.class, messageId, answers));
+    }
+
+    /**
+     * A member holding the given roles, each role granting the matching raw permissions. Like
+     * JDA's member, getRoles copies the roles on every call and the permission getters fold
+     * them from such a copy, so benchmarks pay the same allocations as against a live guild.
+     */
+    @SuppressWarnings("unchecked")
+    static Member member(long memberId, long[] roleIds, long[] rolePermissions) {
+        List<Role> roles = new ArrayList<>();
+        for (int i = 0; i < roleIds.length; i++) {
+            roles.add(stub(Role.class, roleIds[i],
+                    Collections.singletonMap("getPermissionsRaw", rolePermissions[i])));
+        }
+
+        Member member = stub(Member.class, memberId, Collections.emptyMap());
+        return (Member) Proxy.newProxyInstance(FakeEvents.class.getClassLoader(), new Class<?>[]{Member.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getRoles":
+                            return Collections.unmodifiableList(new ArrayList<>(roles));
+                        case "getPermissions":
+                            if (args == null) {
+                                return Permission.getPermissions(effectivePermissions((Member) proxy));
+                            }
+                            break;
+                        case "hasPermission":
+                            if (args.length == 1) {
+                                long required = args[0] instanceof Permission[]
+                                        ? Permission.getRaw((Permission[]) args[0])
+                                        : Permission.getRaw((Collection<Permission>) args[0]);
+                                return (effectivePermissions((Member) proxy) & required) == required;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    return method.invoke(member, args);
+                });
+    }
+
+    private static long effectivePermissions(Member member) {
+        long granted = 0;
+        for (Role role : member.getRoles()) {
+            granted |= role.getPermissionsRaw();
+        }
+        return granted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, long id, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(FakeEvents.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (answers.containsKey(name)) {
+                        return answers.get(name);
+                    }
+
+                    switch (name) {
+                        case "getIdLong":
+                            return id;
+                        case "getId":
+                            return Long.toUnsignedString(id);
+                        case "hashCode":
+                            return Long.hashCode(id);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return type.getSimpleName() + "(" + id + ")";
+                        default:
+                            break;
+                    }
+
+                    Class<?> returnType = method.getReturnType();
+                    if (returnType == boolean.class) return false;
+                    if (returnType == long.class) return 0L;
+                    if (returnType == int.class) return 0;
+                    return null;
+                });
+    }
+}
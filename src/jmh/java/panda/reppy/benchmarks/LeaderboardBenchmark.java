@@ -0,0 +1,58 @@
+package panda.reppy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import panda.reppy.database.Leaderboard;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LeaderboardBenchmark {
+
+    /**
+     * Measures applying a vote to the leaderboard and reading a page of it, with every user
+     * already ranked.
+     */
+
+    private static final long USER_BASE = 800_000_000_000_000_000L;
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private Leaderboard leaderboard;
+    private SplittableRandom random;
+
+    @Setup
+    public void setUp() {
+        leaderboard = Leaderboard.getInstance();
+        random = new SplittableRandom(7);
+        for (int i = 0; i < users; i++) {
+            leaderboard.set(USER_BASE + i, 1 + random.nextInt(5000));
+        }
+    }
+
+    @Benchmark
+    public void applyVote() {
+        leaderboard.adjust(USER_BASE + random.nextInt(users), random.nextBoolean() ? 10 : -2);
+    }
+
+    @Benchmark
+    public List<Leaderboard.Standing> firstPage() {
+        return leaderboard.getPage(0, 10);
+    }
+
+    @Benchmark
+    public List<Leaderboard.Standing> tenthPage() {
+        return leaderboard.getPage(90, 10);
+    }
+}
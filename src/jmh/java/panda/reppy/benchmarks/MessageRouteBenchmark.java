@@ -0,0 +1,47 @@
+package panda.reppy.benchmarks;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import panda.reppy.listeners.MessageListener;
+import panda.reppy.util.constants.SnowflakeConstants;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageRouteBenchmark {
+
+    /**
+     * Measures routing a guild message no route is interested in, which is nearly every message
+     * the bot receives, and one sent by a routed author.
+     */
+
+    private MessageListener listener;
+    private MessageReceivedEvent unroutedMessage;
+    private MessageReceivedEvent routedMessage;
+
+    @Setup
+    public void setUp() {
+        listener = new MessageListener();
+
+        unroutedMessage = FakeEvents.messageReceived(1, 42, 43, "hello <@169208961533345792>");
+        routedMessage = FakeEvents.messageReceived(2, 42, SnowflakeConstants.BOT_OWNER_ID, "hello");
+    }
+
+    @Benchmark
+    public void routeUnrelated() {
+        listener.onMessageReceived(unroutedMessage);
+    }
+
+    @Benchmark
+    public void routeOwner() {
+        listener.onMessageReceived(routedMessage);
+    }
+}
@@ -0,0 +1,62 @@
+package panda.reppy.benchmarks;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import panda.reppy.entities.MessageWaiter;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageWaiterBenchmark {
+
+    /**
+     * Measures dispatching one message while many question builder sessions are subscribed.
+     * A message from a subscriber runs its action, any other message should find no bucket.
+     */
+
+    private static final long CHANNEL_BASE = 900_000_000_000_000_000L;
+    private static final long AUTHOR_BASE = 800_000_000_000_000_000L;
+
+    @Param({"10", "1000", "10000"})
+    public int sessions;
+
+    private MessageWaiter waiter;
+    private MessageReceivedEvent subscribedMessage;
+    private MessageReceivedEvent unrelatedMessage;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        waiter = new MessageWaiter();
+
+        for (int i = 0; i < sessions; i++) {
+            waiter.subscribe(CHANNEL_BASE + i, AUTHOR_BASE + i, event -> this.blackhole.consume(event),
+                    1, TimeUnit.HOURS, () -> {});
+        }
+
+        subscribedMessage = FakeEvents.messageReceived(1, CHANNEL_BASE + sessions / 2, AUTHOR_BASE + sessions / 2,
+                "title");
+        unrelatedMessage = FakeEvents.messageReceived(2, 42, 43, "hello");
+    }
+
+    @Benchmark
+    public void dispatchToSubscriber() {
+        waiter.onGuildMessageReceived(subscribedMessage);
+    }
+
+    @Benchmark
+    public void dispatchUnrelated() {
+        waiter.onGuildMessageReceived(unrelatedMessage);
+    }
+}
@@ -0,0 +1,68 @@
+package panda.reppy.benchmarks;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import panda.reppy.database.codecs.ModelCodecProvider;
+import panda.reppy.database.models.Question;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ModelDecodeBenchmark {
+
+    /**
+     * Compares the hand written QuestionCodec with the reflection based POJO codec it replaced.
+     * Documents are decoded from an in-memory BsonDocument, the same reader the driver hands to
+     * ModelDao's queries, so no Mongo server is involved.
+     */
+
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private Codec<Question> modelCodec;
+    private Codec<Question> pojoCodec;
+    private BsonDocument document;
+
+    @Setup
+    public void setUp() {
+        modelCodec = CodecRegistries.fromProviders(new ModelCodecProvider()).get(Question.class);
+        pojoCodec = CodecRegistries.fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
+                CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build()))
+                .get(Question.class);
+
+        Question question = new Question();
+        question.setId(new ObjectId());
+        question.setThreadId(912345678901234567L);
+        question.setAuthorId(812345678901234567L);
+        question.setTitle("How do I tween a part along a path without it jittering?");
+
+        document = new BsonDocument();
+        modelCodec.encode(new BsonDocumentWriter(document), question, EncoderContext.builder().build());
+    }
+
+    @Benchmark
+    public Question decodeModelCodec() {
+        return modelCodec.decode(new BsonDocumentReader(document), DECODER_CONTEXT);
+    }
+
+    @Benchmark
+    public Question decodePojoCodec() {
+        return pojoCodec.decode(new BsonDocumentReader(document), DECODER_CONTEXT);
+    }
+}
@@ -0,0 +1,46 @@
+package panda.reppy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import panda.reppy.entities.QuestionBuilder;
+import panda.reppy.entities.QuestionConversation;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QuestionFormatBenchmark {
+
+    /**
+     * Measures formatting the status menu that the question builder sends after every field.
+     */
+
+    private QuestionBuilder emptyBuilder;
+    private QuestionBuilder filledBuilder;
+
+    @Setup
+    public void setUp() {
+        emptyBuilder = new QuestionBuilder(812345678901234567L);
+
+        filledBuilder = new QuestionBuilder(812345678901234567L);
+        filledBuilder.setTitle("How do I tween a part along a path without it jittering?");
+        filledBuilder.setBody("I am moving a part along a list of waypoints and it stutters between each one.");
+        filledBuilder.setCodeblock("```lua\nlocal tween = TweenService:Create(part, info, goal)\n```");
+    }
+
+    @Benchmark
+    public String formatEmptyStatus() {
+        return QuestionConversation.formatStatus(emptyBuilder);
+    }
+
+    @Benchmark
+    public String formatFilledStatus() {
+        return QuestionConversation.formatStatus(filledBuilder);
+    }
+}
@@ -1,13 +1,56 @@
 package panda.reppy.commands;
 
+import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
 import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 
+import java.util.concurrent.CompletableFuture;
+
 public abstract class BaseCommand extends CommandData {
 
     public BaseCommand(final String name, final String description) {
         super(name, description);
     }
 
+    /**
+     * Runs the command. The dispatcher defers every interaction before the command runs, so it
+     * must answer through {@link SlashCommandEvent#getHook()} instead of replying.
+     */
     public abstract boolean execute(SlashCommandEvent event);
+
+    /**
+     * Runs the command for the dispatcher, which holds the command's concurrency permit until
+     * the returned future completes. Commands that finish on another thread override this to
+     * return a future completing once they have answered.
+     */
+    public CompletableFuture<?> run(SlashCommandEvent event) {
+        execute(event);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /** Whether the answer is only shown to the member who used the command. */
+    public boolean isEphemeral() {
+        return false;
+    }
+
+    /**
+     * Checked by the dispatcher on the event thread before the command is deferred, so a
+     * refusal can still be answered ephemerally.
+     */
+    public boolean hasPermission(Member member) {
+        return true;
+    }
+
+    /**
+     * Commands that return true are answered with a degraded reply by the dispatcher while the
+     * database is unreachable, instead of waiting on it.
+     */
+    public boolean requiresDatabase() {
+        return false;
+    }
+
+    /** Maximum number of executions of this command running at the same time. */
+    public int getMaxConcurrency() {
+        return 4;
+    }
 }
@@ -0,0 +1,132 @@
+package panda.reppy.commands;
+
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import panda.reppy.entities.BotMongoClient;
+import panda.reppy.util.metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CommandDispatcher {
+
+    /**
+     * CommandDispatcher runs command bodies on an executor so the JDA event thread only does
+     * the bookkeeping and the acknowledgement. Every interaction is deferred on the event thread
+     * before its command is queued, so a command waiting for a thread never misses Discord's
+     * acknowledgement window, and commands answer through the interaction hook.
+     *
+     * Members without permission are refused before the interaction is deferred, so the refusal
+     * is ephemeral. Every command has its own concurrency limit, and the dispatcher as a whole
+     * accepts at most maxPending running or queued commands. Anything over either limit is
+     * answered with a busy reply right away. Commands that need the database are refused the
+     * same way while the last heartbeat could not reach it.
+     *
+     * A command holds its permits until the future returned by {@link BaseCommand#run} completes,
+     * so commands that answer from another thread are limited like the others. A command that
+     * throws is answered with an error reply, so the deferred reply never keeps thinking.
+     */
+
+    private static final String BUSY_REPLY = "The bot is busy right now, please try again in a moment.";
+    private static final String DEGRADED_REPLY = "The database is unavailable right now, please try again later.";
+    private static final String FAILURE_REPLY = "Something went wrong while running this command.";
+
+    private final Executor executor;
+    private final int maxPending;
+    private final Semaphore pending;
+    private final Map<String, Semaphore> commandPermits = new ConcurrentHashMap<>();
+
+    public CommandDispatcher(final Executor executor, final int maxPending) {
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /** Dispatcher backed by a fixed pool of daemon threads. */
+    public static CommandDispatcher boundedPool(final int threads, final int maxPending) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "CommandDispatcher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return new CommandDispatcher(pool, maxPending);
+    }
+
+    public void dispatch(final BaseCommand command, final SlashCommandEvent event) {
+        if (!command.hasPermission(event.getMember())) {
+            MetricsRegistry.counter("command_denied", command.getName()).increment();
+            event.reply(ConditionalCommand.NO_PERMISSION_REPLY).setEphemeral(true).queue();
+            return;
+        }
+
+        if (command.requiresDatabase() && !BotMongoClient.isConnected()) {
+            MetricsRegistry.counter("command_degraded", command.getName()).increment();
+            event.reply(DEGRADED_REPLY).setEphemeral(true).queue();
+            return;
+        }
+
+        Semaphore permits = commandPermits.computeIfAbsent(command.getName(),
+                name -> new Semaphore(command.getMaxConcurrency()));
+
+        if (!permits.tryAcquire()) {
+            rejectBusy(event);
+            return;
+        }
+        if (!pending.tryAcquire()) {
+            permits.release();
+            rejectBusy(event);
+            return;
+        }
+
+        event.deferReply(command.isEphemeral()).queue();
+
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                CompletableFuture<?> done;
+                try {
+                    done = command.run(event);
+                } catch (RuntimeException e) {
+                    done = CompletableFuture.failedFuture(e);
+                }
+
+                done.whenComplete((result, error) -> {
+                    if (error != null) {
+                        MetricsRegistry.counter("command_failures", command.getName()).increment();
+                        System.out.printf("Command %s failed: %s%n", command.getName(), error);
+                        event.getHook().sendMessage(FAILURE_REPLY).queue();
+                    }
+                    MetricsRegistry.histogram("command", command.getName()).recordSince(start);
+                    pending.release();
+                    permits.release();
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            permits.release();
+
+            MetricsRegistry.counter("command_rejections", command.getName()).increment();
+            event.getHook().sendMessage(BUSY_REPLY).queue();
+        }
+    }
+
+    /** Number of commands that are running or waiting to run. */
+    public int getPendingCount() {
+        return maxPending - pending.availablePermits();
+    }
+
+    private static void rejectBusy(final SlashCommandEvent event) {
+        MetricsRegistry.counter("command_rejections", event.getName()).increment();
+        event.reply(BUSY_REPLY).setEphemeral(true).queue();
+    }
+}
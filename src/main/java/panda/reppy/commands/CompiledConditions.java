@@ -0,0 +1,91 @@
+package panda.reppy.commands;
+
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import panda.reppy.flags.CommandCondition;
+import panda.reppy.util.LongHashSet;
+
+import java.util.Arrays;
+import java.util.List;
+
+final class CompiledConditions {
+
+    /**
+     * CompiledConditions is the list of conditions of a ConditionalCommand, folded once into a
+     * set of member ids, a set of role ids and the distinct permission masks. A member passes
+     * if any one condition holds, which costs a hash probe for the member, one per role they
+     * hold, and one mask test per distinct permission set against permissions read once with
+     * Member#getPermissions. Only the public JDA API is used, and it has no way to read the
+     * roles without Member#getRoles copying them, so each check still makes one copy for the
+     * roles and one for the permissions; ConditionBenchmark measures both.
+     */
+
+    private final LongHashSet memberIds = new LongHashSet();
+    private final LongHashSet roleIds = new LongHashSet();
+    private final long[] permissionMasks;
+
+    private CompiledConditions(final List<CommandCondition> conditions) {
+        long[] masks = new long[conditions.size()];
+        int maskCount = 0;
+
+        for (CommandCondition condition : conditions) {
+            switch (condition.getSnowflakeType()) {
+                case MEMBER_ID:
+                    memberIds.add(condition.getSnowflake());
+                    break;
+                case ROLE_ID:
+                    roleIds.add(condition.getSnowflake());
+                    break;
+                case PERMISSION:
+                    if (!containsMask(masks, maskCount, condition.getPermissions())) {
+                        masks[maskCount++] = condition.getPermissions();
+                    }
+                    break;
+            }
+        }
+        permissionMasks = Arrays.copyOf(masks, maskCount);
+    }
+
+    static CompiledConditions compile(final List<CommandCondition> conditions) {
+        return new CompiledConditions(conditions);
+    }
+
+    boolean test(final Member member) {
+        if (member == null) {
+            return false;
+        }
+
+        if (memberIds.contains(member.getIdLong())) {
+            return true;
+        }
+
+        if (!roleIds.isEmpty()) {
+            for (Role role : member.getRoles()) {
+                if (roleIds.contains(role.getIdLong())) {
+                    return true;
+                }
+            }
+        }
+
+        if (permissionMasks.length > 0) {
+            long granted = Permission.getRaw(member.getPermissions());
+            for (long mask : permissionMasks) {
+                if ((granted & mask) == mask) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean containsMask(final long[] masks, final int count, final long mask) {
+        for (int i = 0; i < count; i++) {
+            if (masks[i] == mask) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
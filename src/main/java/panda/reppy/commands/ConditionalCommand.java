@@ -1,5 +1,6 @@
 package panda.reppy.commands;
 
+import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
 import panda.reppy.flags.CommandCondition;
 
@@ -8,7 +9,7 @@ import java.util.List;
 
 public abstract class ConditionalCommand extends BaseCommand {
 
-    private final List<CommandCondition> commandConditionList;
+    private final CompiledConditions conditions;
 
     public ConditionalCommand(final String name, final String description,
                               CommandCondition... commandConditions) {
@@ -18,24 +19,32 @@ public abstract class ConditionalCommand extends BaseCommand {
     private ConditionalCommand(final String name, final String description,
                                final List<CommandCondition> commandConditions) {
         super(name, description);
-        commandConditionList = commandConditions;
+        conditions = CompiledConditions.compile(commandConditions);
     }
 
+    public static final String NO_PERMISSION_REPLY = "You do not have permission to execute this command.";
+
     @Override
     public boolean execute(SlashCommandEvent event) {
-        boolean hasPermission = false;
-
-        for (CommandCondition condition : commandConditionList) {
-            if (condition.meetsCondition(event.getMember())) {
-                hasPermission = true;
-                break;
-            }
-        }
+        boolean hasPermission = hasPermission(event.getMember());
 
+        // The dispatcher refuses members without permission before deferring, this only guards direct calls.
         if (!hasPermission) {
-            event.reply("You do not have permission to execute this command.").setEphemeral(true).queue();
+            event.getHook().sendMessage(NO_PERMISSION_REPLY).queue();
         }
 
         return hasPermission;
     }
+
+    /** Commands restricted by conditions only answer the member who used them. */
+    @Override
+    public boolean isEphemeral() {
+        return true;
+    }
+
+    /** True if the member meets at least one condition of this command. */
+    @Override
+    public boolean hasPermission(Member member) {
+        return conditions.test(member);
+    }
 }
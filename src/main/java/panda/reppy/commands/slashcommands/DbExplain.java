@@ -0,0 +1,83 @@
+package panda.reppy.commands.slashcommands;
+
+import com.mongodb.MongoException;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import org.bson.Document;
+import panda.reppy.commands.ConditionalCommand;
+import panda.reppy.database.DatabaseSchema;
+import panda.reppy.database.ModelDao;
+import panda.reppy.util.constants.CommandConditionConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DbExplain extends ConditionalCommand {
+
+    public DbExplain() {
+        super("db-explain", "Report whether the hot database queries are covered by an index.",
+                CommandConditionConstants.OWNER_CONDITION);
+    }
+
+    @Override
+    public boolean requiresDatabase() {
+        return true;
+    }
+
+    @Override
+    public boolean execute(SlashCommandEvent event) {
+        boolean valid = super.execute(event);
+
+        if (valid) {
+            StringBuilder report = new StringBuilder("```\n");
+            for (DatabaseSchema.HotQuery query : DatabaseSchema.HOT_QUERIES) {
+                report.append(String.format("%-10s %-11s ", query.getCollectionName(), query.getFieldName()));
+
+                try {
+                    Document plan = ModelDao.explainQuery(query.getCollectionName(),
+                            new Document(query.getFieldName(), 0L), query.getProjection());
+                    report.append(describePlan(plan));
+                } catch (MongoException e) {
+                    report.append("explain failed: ").append(e.getMessage());
+                }
+
+                report.append('\n');
+            }
+            report.append("```");
+
+            event.getHook().sendMessage(report.toString()).queue();
+        }
+
+        return valid;
+    }
+
+    private static String describePlan(Document plan) {
+        List<String> stages = new ArrayList<>();
+        List<String> indexes = new ArrayList<>();
+        collectStages(plan, stages, indexes);
+
+        if (stages.contains("COLLSCAN")) {
+            return "COLLSCAN (not indexed)";
+        }
+        if (stages.contains("IXSCAN")) {
+            return (stages.contains("FETCH") ? "IXSCAN + FETCH " : "IXSCAN covered ") + indexes;
+        }
+        return String.join(" > ", stages);
+    }
+
+    private static void collectStages(Document stage, List<String> stages, List<String> indexes) {
+        if (stage == null) {
+            return;
+        }
+
+        stages.add(stage.getString("stage"));
+        if (stage.containsKey("indexName")) {
+            indexes.add(stage.getString("indexName"));
+        }
+
+        collectStages(stage.get("inputStage", Document.class), stages, indexes);
+        List<Document> inputStages = stage.getList("inputStages", Document.class);
+        if (inputStages != null) {
+            inputStages.forEach(input -> collectStages(input, stages, indexes));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package panda.reppy.commands.slashcommands;
+
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import panda.reppy.commands.BaseCommand;
+import panda.reppy.database.Leaderboard;
+
+import java.util.List;
+
+public class LeaderboardCommand extends BaseCommand {
+
+    private static final int PAGE_SIZE = 10;
+
+    public LeaderboardCommand() {
+        super("leaderboard", "Show the users with the most reputation.");
+
+        addOption(OptionType.INTEGER, "page", "The page of the leaderboard to show.");
+    }
+
+    @Override
+    public boolean execute(SlashCommandEvent event) {
+        Leaderboard leaderboard = Leaderboard.getInstance();
+        int size = leaderboard.size();
+        if (size == 0) {
+            event.getHook().sendMessage("Nobody has earned any reputation yet.").queue();
+            return true;
+        }
+
+        OptionMapping pageOption = event.getOption("page");
+        int pages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+        int page = pageOption == null ? 1 : (int) Math.min(pages, Math.max(1, pageOption.getAsLong()));
+
+        List<Leaderboard.Standing> standings = leaderboard.getPage((page - 1) * PAGE_SIZE, PAGE_SIZE);
+
+        StringBuilder description = new StringBuilder();
+        int rank = (page - 1) * PAGE_SIZE;
+        for (Leaderboard.Standing standing : standings) {
+            description.append(String.format("**%d.** <@%d> %d reputation%n", ++rank, standing.getUserId(),
+                    standing.getReputation()));
+        }
+
+        EmbedBuilder builder = new EmbedBuilder()
+                .setTitle("Reputation leaderboard")
+                .setDescription(description)
+                .setFooter(String.format("Page %d of %d, %d users ranked", page, pages, size));
+
+        event.getHook().sendMessageEmbeds(builder.build()).queue();
+        return true;
+    }
+}
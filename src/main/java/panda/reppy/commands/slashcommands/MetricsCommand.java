@@ -0,0 +1,44 @@
+package panda.reppy.commands.slashcommands;
+
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import panda.reppy.commands.ConditionalCommand;
+import panda.reppy.util.constants.CommandConditionConstants;
+import panda.reppy.util.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class MetricsCommand extends ConditionalCommand {
+
+    // Discord message limit minus the code block fences.
+    private static final int MAX_SUMMARY_LENGTH = 2000 - 8;
+
+    private final Path dumpPath;
+
+    public MetricsCommand(Path dumpPath) {
+        super("metrics", "Show command, database and waiter latencies.", CommandConditionConstants.OWNER_CONDITION);
+
+        this.dumpPath = dumpPath;
+    }
+
+    @Override
+    public boolean execute(SlashCommandEvent event) {
+        boolean valid = super.execute(event);
+
+        if (valid) {
+            try {
+                MetricsRegistry.writePrometheus(dumpPath);
+            } catch (IOException e) {
+                System.out.println("Failed to write metrics: " + e.getMessage());
+            }
+
+            String summary = MetricsRegistry.formatSummary();
+            if (summary.length() > MAX_SUMMARY_LENGTH) {
+                summary = summary.substring(0, MAX_SUMMARY_LENGTH - 4) + "...\n";
+            }
+            event.getHook().sendMessage("```\n" + summary + "```").queue();
+        }
+
+        return valid;
+    }
+}
@@ -12,7 +12,7 @@ public class Ping extends BaseCommand {
     @Override
     public boolean execute(SlashCommandEvent event) {
         long time = System.currentTimeMillis();
-        event.reply("Pong!") // reply or acknowledge
+        event.getHook().editOriginal("Pong!") // answer the deferred reply
                 .flatMap(v ->
                         event.getHook().editOriginalFormat("Pong: %d ms", System.currentTimeMillis() - time) // then edit original
                 ).queue(); // Queue both reply and edit
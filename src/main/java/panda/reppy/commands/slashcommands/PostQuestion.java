@@ -2,338 +2,177 @@ package panda.reppy.commands.slashcommands;
 
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
-import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import panda.reppy.commands.BaseCommand;
 import panda.reppy.database.ModelDao;
 import panda.reppy.entities.MessageWaiter;
 import panda.reppy.entities.QuestionBuilder;
+import panda.reppy.entities.QuestionConversation;
+import panda.reppy.entities.QuestionSession;
+import panda.reppy.entities.QuestionSessionStore;
+import panda.reppy.search.TitleIndex;
+import panda.reppy.util.MessageComposer;
 import panda.reppy.util.constants.SnowflakeConstants;
+import panda.reppy.util.metrics.MetricsRegistry;
 
-import java.util.*;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 public class PostQuestion extends BaseCommand {
 
-    private final static List<String> CANCEL_WORDS = Arrays.asList("stop", "quit");
+    private static final int MAX_SIMILAR_QUESTIONS = 3;
+    private static final double MIN_SIMILARITY = 0.45;
 
-    private final Set<String> current;
-    private final Map<String, QuestionBuilder> builderMap;
+    private final QuestionSessionStore sessions;
+    private final QuestionConversation conversation;
 
-    public PostQuestion() {
+    public PostQuestion(QuestionSessionStore sessions) {
         super("post-question", "Begin the process of posting a question.");
 
-        this.current = new HashSet<>();
-        this.builderMap = new HashMap<>();
+        this.sessions = sessions;
+        this.conversation = new QuestionConversation(new QuestionConversation.Listener() {
+            @Override
+            public void onDone(QuestionSession session) {
+                postQuestion(session);
+            }
+
+            @Override
+            public void onQuit(QuestionSession session) {
+                cleanMessages(session);
+            }
+
+            @Override
+            public void onTitleSet(QuestionSession session) {
+                suggestSimilarQuestions(session);
+            }
+        });
     }
 
     @Override
     public boolean execute(SlashCommandEvent event) {
-        if (!event.getTextChannel().getId().equals(SnowflakeConstants.ASK_QUESTION_CHANNEL_ID)) {
-            event.reply("Please use <#" + SnowflakeConstants.ASK_QUESTION_CHANNEL_ID + "> to ask questions.")
-                    .setEphemeral(true).queue();
+        if (event.getTextChannel().getIdLong() != SnowflakeConstants.ASK_QUESTION_CHANNEL_ID) {
+            replyBriefly(event, "Please use <#" + SnowflakeConstants.ASK_QUESTION_CHANNEL_ID + "> to ask questions.");
             return false;
         }
 
         final Member member = event.getMember();
 
-        final String memberId = member.getId();
-
-        if (current.contains(memberId)) {
-            event.reply("You are already building a question.").queue(response ->
-                    response.deleteOriginal().queueAfter(5, TimeUnit.SECONDS));
-            return false;
-        }
-
         Guild guild = event.getGuild();
         if (guild == null) {
-            event.reply("Failed to fetch guild.").queue(response ->
-                    response.deleteOriginal().queueAfter(5, TimeUnit.SECONDS));
+            replyBriefly(event, "Failed to fetch guild.");
             return false;
         }
 
         TextChannel threadChannel = guild.getTextChannelById(SnowflakeConstants.THREAD_CHANNEL_ID);
         if (threadChannel == null) {
-            event.reply("Failed to fetch thread channel.").queue(response ->
-                    response.deleteOriginal().queueAfter(5, TimeUnit.SECONDS));
+            replyBriefly(event, "Failed to fetch thread channel.");
             return false;
         }
 
-        // Check for previous questions with similar titles
-        // TODO Implement similarity check on titles
-//        List<ThreadChannel> threads = threadChannel.getThreadChannels();
-//        for (ThreadChannel thread : threads) {
-//            // TODO - Check for similar instead of exact.
-//            if (thread.getName().equals(title)) {
-//                // - Reply with any matches and return
-//                event.reply("Found matching channel here <#" + thread.getId() + ">.")
-//                        .setEphemeral(true).queue(response ->
-//                                response.deleteOriginal().queueAfter(30, TimeUnit.SECONDS));
-//                return true;
-//            }
-//        }
+        QuestionSession session = sessions.start(member.getIdLong());
+        if (session == null) {
+            replyBriefly(event, "You are already building a question.");
+            return false;
+        }
 
-        current.add(memberId);
-        builderMap.put(memberId, new QuestionBuilder(memberId));
+        final boolean resumed = session.getBuilder().getTitle() != null || session.getBuilder().getBody() != null;
 
         event.getTextChannel()
                 .createThreadChannel(String.format("Question Building for %s", member.getEffectiveName()), true)
                 .queue(thread -> {
                     thread.addThreadMember(member).queue();
-                    thread.sendMessage(member.getAsMention() + ", Welcome to your personal Question Builder.")
-                            .queue();
-                    waitForResponse(event, thread, event.getIdLong());
+
+                    // One subscription per session, every reply is routed by the conversation engine.
+                    MessageWaiter.Subscription subscription = getWaiter(event).subscribe(
+                            thread.getIdLong(), member.getIdLong(),
+                            e -> conversation.route(session, e.getMessage().getContentRaw()),
+                            QuestionSessionStore.IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES, () -> onTimeout(session));
+                    session.attach(thread, member.getAsMention(), subscription);
+                    // Creating the thread and adding the member.
+                    session.countRestCalls(2);
+                    conversation.begin(session);
+                    if (resumed) {
+                        session.send("Your previous draft was restored.");
+                    }
+                    event.getHook().sendMessage("Question posted.").queue();
+                }, error -> {
+                    // The session is already asking, end it or the member could never start again.
+                    sessions.end(member.getIdLong());
+                    replyBriefly(event, "Failed to create a thread for your question: " + error.getMessage());
                 });
 
-        event.reply("Question posted.").queue();
         return true;
     }
 
-    private String formatStatus(String value) {
-        if (value != null) {
-            return "[ set ]";
-        }
-        return "[unset]";
-    }
-
-    private String generateThreadStatus(String memberId) {
-        QuestionBuilder questionBuilder = builderMap.get(memberId);
-
-        String status = String.format(
-                "Reply with any of the fields below to begin.\n\n" +
-                "- %s Title*\n" +
-                "- %s Body*\n" +
-                "- %s Codeblock\n" +
-                "- %s Output\n\n" +
-                "Reply `done` when you are finished building your question.\n" +
-                "Reply `quit` when you no longer want to build a question.",
-                formatStatus(questionBuilder.getTitle()),
-                formatStatus(questionBuilder.getBody()),
-                formatStatus(questionBuilder.getCodeblock()),
-                formatStatus(questionBuilder.getOutput())
-        );
-
-        return status;
+    // Answers the deferred reply and deletes the answer after a few seconds.
+    private static void replyBriefly(SlashCommandEvent event, String content) {
+        event.getHook().editOriginal(content).queue(response ->
+                event.getHook().deleteOriginal().queueAfter(5, TimeUnit.SECONDS));
     }
 
-    private void handleTitle(SlashCommandEvent event, ThreadChannel thread, long lastMessage) {
-        QuestionBuilder questionBuilder = builderMap.get(event.getMember().getId());
-        String title = questionBuilder.getTitle();
-        if (title != null) {
-            thread.sendMessage("You currently have a title set.\n" +
-                            "Title: " + title + "\n\n" +
-                            "If you do not want to override your current title, please reply with `back`.")
-                    .queue();
-        } else {
-            thread.sendMessage("Please provide what the title of your question should be.").queue();
-        }
-
-        wait(event, thread, lastMessage, e -> {
-            Message message = e.getMessage();
-            String content = message.getContentRaw();
+    private void postQuestion(QuestionSession session) {
+        ThreadChannel thread = session.getThread();
+        TextChannel channel = thread.getGuild().getTextChannelById(SnowflakeConstants.THREAD_CHANNEL_ID);
+        QuestionBuilder builder = session.getBuilder();
+        List<String> messages = MessageComposer.compose(
+                "**Question posted by: " + session.getMemberMention() + "**\n\n" + builder.getBody(),
+                builder.getCodeblock(), builder.getOutput());
 
-            if (content.equalsIgnoreCase("back")) {
-                waitForResponse(event, thread, message.getIdLong());
+        channel.createThreadChannel(builder.getTitle()).queue(postedThread -> {
+            postedThread.sendMessage(messages.get(0)).queue(message -> message.pin().queue());
+            for (int i = 1; i < messages.size(); i++) {
+                postedThread.sendMessage(messages.get(i)).queue();
             }
 
-            questionBuilder.setTitle(content);
-            waitForResponse(event, thread, message.getIdLong());
+            // Creating the thread, the messages, the pin and deleting the builder thread.
+            MetricsRegistry.counter("questions", "rest_calls").add(session.getRestCalls() + messages.size() + 3);
+            MetricsRegistry.counter("questions", "posted").increment();
+
+            ModelDao.generateQuestionModelAsync(postedThread, builder).exceptionally(error -> {
+                System.out.println("Failed to save question " + postedThread.getId() + ": " + error.getMessage());
+                return null;
+            });
+            cleanMessages(session);
+        }, error -> {
+            // Keep the builder thread around for a minute so the member sees why.
+            session.send("Failed to post your question: " + error.getMessage());
+            sessions.end(session.getMemberId());
+            thread.delete().queueAfter(1, TimeUnit.MINUTES);
         });
     }
 
-    private void handleBody(SlashCommandEvent event, ThreadChannel thread, long lastMessage) {
-        QuestionBuilder questionBuilder = builderMap.get(event.getMember().getId());
-        String body = questionBuilder.getBody();
-        if (body != null) {
-            thread.sendMessage("You currently have a body set.\n" +
-                            "Body: " + body + "\n\n" +
-                            "If you do not want to override your current body, please reply with `back`.")
-                    .queue();
-        } else {
-            thread.sendMessage("Please provide what the body of your question should be.").queue();
-        }
-
-        wait(event, thread, lastMessage, e -> {
-            Message message = e.getMessage();
-            String content = message.getContentRaw();
-
-            if (content.equalsIgnoreCase("back")) {
-                waitForResponse(event, thread, message.getIdLong());
-            }
-
-            questionBuilder.setBody(content);
-            waitForResponse(event, thread, message.getIdLong());
-        });
-    }
+    // Points the member at earlier questions before they spend time on a duplicate.
+    private void suggestSimilarQuestions(QuestionSession session) {
+        long start = System.nanoTime();
+        List<TitleIndex.Match> matches = TitleIndex.getInstance().findSimilar(session.getBuilder().getTitle(),
+                MAX_SIMILAR_QUESTIONS, MIN_SIMILARITY);
+        MetricsRegistry.histogram("search", "similar_titles").recordSince(start);
 
-    private void handleCodeblock(SlashCommandEvent event, ThreadChannel thread, long lastMessage) {
-        QuestionBuilder questionBuilder = builderMap.get(event.getMember().getId());
-        String codeblock = questionBuilder.getCodeblock();
-        if (codeblock != null) {
-            thread.sendMessage("You currently have a codeblock set.\n" +
-                            "Codeblock: " + codeblock + "\n\n" +
-                            "If you do not want to override your current codeblock, please reply with `back`.")
-                    .queue();
-        } else {
-            thread.sendMessage("Please provide what the codeblock of your question should be.").queue();
+        if (matches.isEmpty()) {
+            return;
         }
 
-        wait(event, thread, lastMessage, e -> {
-            Message message = e.getMessage();
-            String content = message.getContentRaw();
-
-            if (content.equalsIgnoreCase("back")) {
-                waitForResponse(event, thread, message.getIdLong());
-            }
-
-            if (content.contains("```lua")) content = content.replace("```lua", "");
-            if (content.contains("`")) content = content.replaceAll("`", "");
-
-            content = "```lua\n" + content + "\n```";
-
-            questionBuilder.setCodeblock(content);
-            waitForResponse(event, thread, message.getIdLong());
-        });
-    }
-
-    private void handleOutput(SlashCommandEvent event, ThreadChannel thread, long lastMessage) {
-        QuestionBuilder questionBuilder = builderMap.get(event.getMember().getId());
-        String output = questionBuilder.getOutput();
-        if (output != null) {
-            thread.sendMessage("You currently have an output log set.\n" +
-                            "Output: " + output + "\n\n" +
-                            "If you do not want to override your current output, please reply with `back`.")
-                    .queue();
-        } else {
-            thread.sendMessage("Please provide what the output of your question should be.").queue();
+        StringBuilder message = new StringBuilder("These questions look similar to yours, " +
+                "one of them may already have an answer:\n");
+        for (TitleIndex.Match match : matches) {
+            message.append("- <#").append(match.getThreadId()).append(">\n");
         }
-
-        wait(event, thread, lastMessage, e -> {
-            Message message = e.getMessage();
-            String content = message.getContentRaw();
-
-            if (content.equalsIgnoreCase("back")) {
-                waitForResponse(event, thread, message.getIdLong());
-            }
-
-            if (content.contains("`")) content = content.replaceAll("`", "");
-
-            content = "```\n" + content + "\n```";
-
-            questionBuilder.setOutput(content);
-            waitForResponse(event, thread, message.getIdLong());
-        });
-    }
-
-    private void waitForResponse(SlashCommandEvent event, ThreadChannel thread, long lastMessage) {
-        thread.sendMessage(generateThreadStatus(event.getMember().getId())).queue();
-        wait(event, thread, lastMessage, e -> {
-            Message message = e.getMessage();
-            String content = message.getContentRaw().toLowerCase();
-
-            switch(content) {
-                case "title":
-                    handleTitle(event, thread, message.getIdLong());
-                    break;
-                case "body":
-                    handleBody(event, thread, message.getIdLong());
-                    break;
-                case "codeblock":
-                    handleCodeblock(event, thread, message.getIdLong());
-                    break;
-                case "output":
-                    handleOutput(event, thread, message.getIdLong());
-                    break;
-                case "done":
-                    // TODO Implement checks on Title and Body
-                    QuestionBuilder builder = builderMap.get(event.getMember().getId());
-                    String title = builder.getTitle();
-                    String body = builder.getBody();
-                    boolean complete = true;
-
-
-                    if (title == null) {
-                        complete = false;
-                        thread.sendMessage("Title is unset, please set the title of your question.").queue();
-                    } else if (title.split(" ").length < 6) {
-                        complete = false;
-                        thread.sendMessage("Title was not descriptive enough, please try a better title.").queue();
-                    }
-
-                    if (body == null) {
-                        complete = false;
-                        thread.sendMessage("Body is unset, please set the body of your question.").queue();
-                    } else if (body.split(" ").length < 25) {
-                        complete = false;
-                        thread.sendMessage("There is not enough content in your question, please provide more " +
-                                        "details.")
-                                .queue();
-                    }
-
-                    if (!complete) {
-                        waitForResponse(event, thread, message.getIdLong());
-                    } else {
-                        postQuestion(event, thread);
-                    }
-
-                    break;
-                case "quit":
-                    cleanMessages(event, thread);
-                    break;
-                default:
-                    thread.sendMessage("An invalid option was provided. Please select from one of the following:\n"
-                            + generateThreadStatus(event.getMember().getId()))
-                            .queue();
-                    waitForResponse(event, thread, message.getIdLong());
-                    break;
-            }
-        });
-    }
-
-    private void postQuestion(SlashCommandEvent event, ThreadChannel thread) {
-        Guild guild = event.getGuild();
-        TextChannel channel = guild.getTextChannelById(SnowflakeConstants.THREAD_CHANNEL_ID);
-        Member member = event.getMember();
-        QuestionBuilder builder = builderMap.get(member.getId());
-
-        channel.createThreadChannel(builder.getTitle()).queue(postedThread -> {
-            postedThread.sendMessage("**Question posted by: " + event.getMember().getAsMention() + "**\n\n" +
-                    builder.getBody()).queue(message -> postedThread.pinMessageById(message.getId()).queue());
-            if (builder.getCodeblock() != null) {
-                postedThread.sendMessage(builder.getCodeblock()).queue();
-            }
-            if (builder.getOutput() != null) {
-                postedThread.sendMessage(builder.getOutput()).queue();
-            }
-
-            ModelDao.generateQuestionModel(postedThread, builder);
-            cleanMessages(event, thread);
-        });
+        session.send(message.toString());
     }
 
-    private void wait(SlashCommandEvent event, ThreadChannel thread, long lastMessage, Consumer<MessageReceivedEvent> action) {
-        getWaiter(event).waitForGuildMessageReceived(
-            e -> e.getAuthor().equals(event.getUser()) && e.getChannel().equals(thread)
-                    && e.getMessageIdLong() != lastMessage,
-            e -> {
-                if (CANCEL_WORDS.contains(e.getMessage().getContentRaw().toLowerCase())) {
-                    current.remove(event.getUser().getId());
-                    cleanMessages(event, thread);
-                    e.getMessage().delete().queue();
-                    return;
-                }
-                action.accept(e);
-            }, 5, TimeUnit.MINUTES, new Timeout(event, thread));
+    private void onTimeout(QuestionSession session) {
+        session.send("Uh oh! You took longer than " + QuestionSessionStore.IDLE_TIMEOUT_MINUTES
+                + " minutes to respond, " + session.getMemberMention() + "!");
+        cleanMessages(session);
     }
 
-    private void cleanMessages(SlashCommandEvent event, ThreadChannel thread) {
-        String userId = event.getUser().getId();
+    private void cleanMessages(QuestionSession session) {
+        ThreadChannel thread = session.getThread();
 
-        if (thread != null && event.getGuild().getThreadChannelById(thread.getId()) != null) {
+        if (thread != null && thread.getGuild().getThreadChannelById(thread.getIdLong()) != null) {
             thread.delete().queue();
         }
 
-        current.remove(userId);
+        sessions.end(session.getMemberId());
     }
 
     private MessageWaiter getWaiter(SlashCommandEvent event) {
@@ -342,29 +181,4 @@ public class PostQuestion extends BaseCommand {
                 return (MessageWaiter) ev;
         return null;
     }
-
-    private class Timeout implements Runnable
-    {
-        private final SlashCommandEvent event;
-        private final ThreadChannel thread;
-        private boolean ran = false;
-
-        private Timeout(SlashCommandEvent event, ThreadChannel thread)
-        {
-            this.event = event;
-            this.thread = thread;
-        }
-
-        @Override
-        public void run()
-        {
-            if(ran)
-                return;
-            ran = true;
-            thread.sendMessage("Uh oh! You took longer than 5 minutes to respond, "
-                    + event.getMember().getAsMention() + "!").queue();
-            current.remove(event.getUser().getId());
-            cleanMessages(event, thread);
-        }
-    }
 }
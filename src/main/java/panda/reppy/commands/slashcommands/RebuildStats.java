@@ -0,0 +1,53 @@
+package panda.reppy.commands.slashcommands;
+
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import panda.reppy.commands.ConditionalCommand;
+import panda.reppy.database.UserStatsDao;
+import panda.reppy.database.models.UserStats;
+import panda.reppy.util.constants.CommandConditionConstants;
+
+public class RebuildStats extends ConditionalCommand {
+
+    public RebuildStats() {
+        super("rebuild-stats", "Recompute reputation stats from the raw collections.",
+                CommandConditionConstants.OWNER_CONDITION);
+
+        addOption(OptionType.USER, "user", "Only rebuild the stats of this user.");
+    }
+
+    @Override
+    public boolean requiresDatabase() {
+        return true;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return 1;
+    }
+
+    @Override
+    public boolean execute(SlashCommandEvent event) {
+        boolean valid = super.execute(event);
+
+        if (valid) {
+            OptionMapping userOption = event.getOption("user");
+            if (userOption != null) {
+                Member member = userOption.getAsMember();
+                UserStats stats = UserStatsDao.rebuildUserStats(userOption.getAsUser().getIdLong());
+                event.getHook().sendMessageFormat("Rebuilt stats for %s, reputation is now %d.",
+                        member != null ? member.getEffectiveName() : userOption.getAsUser().getName(),
+                        stats.getReputation()).queue();
+            } else {
+                long start = System.currentTimeMillis();
+                UserStatsDao.rebuildAllUserStats();
+                event.getHook().sendMessageFormat("Rebuilt all user stats in %d ms.",
+                        System.currentTimeMillis() - start).queue();
+            }
+        }
+
+        return valid;
+    }
+}
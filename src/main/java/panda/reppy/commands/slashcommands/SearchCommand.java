@@ -0,0 +1,63 @@
+package panda.reppy.commands.slashcommands;
+
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import panda.reppy.commands.BaseCommand;
+import panda.reppy.search.SearchIndex;
+import panda.reppy.util.metrics.MetricsRegistry;
+
+public class SearchCommand extends BaseCommand {
+
+    private static final int PAGE_SIZE = 5;
+
+    public SearchCommand() {
+        super("search", "Search previously asked questions.");
+
+        addOption(OptionType.STRING, "query", "Words to search the questions for.", true);
+        addOption(OptionType.INTEGER, "page", "The page of results to show.");
+    }
+
+    @Override
+    public boolean execute(SlashCommandEvent event) {
+        SearchIndex index = SearchIndex.getInstance();
+        if (index == null) {
+            event.getHook().sendMessage("Search is unavailable right now.").queue();
+            return false;
+        }
+
+        String query = event.getOption("query").getAsString();
+        OptionMapping pageOption = event.getOption("page");
+        int page = pageOption == null ? 1 : (int) Math.max(1, pageOption.getAsLong());
+
+        long start = System.nanoTime();
+        SearchIndex.Results results = index.search(query, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+        MetricsRegistry.histogram("search", "full_text").recordSince(start);
+
+        if (results.getTotalHits() == 0) {
+            event.getHook().sendMessage("No questions matched `" + query.replace("`", "") + "`.").queue();
+            return true;
+        }
+
+        int pages = (results.getTotalHits() + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (page > pages) {
+            page = pages;
+            results = index.search(query, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+        }
+
+        StringBuilder description = new StringBuilder();
+        int rank = (page - 1) * PAGE_SIZE;
+        for (SearchIndex.Hit hit : results.getHits()) {
+            description.append(String.format("**%d.** <#%d>%n", ++rank, hit.getThreadId()));
+        }
+
+        EmbedBuilder builder = new EmbedBuilder()
+                .setTitle("Search results")
+                .setDescription(description)
+                .setFooter(String.format("Page %d of %d, %d questions matched", page, pages, results.getTotalHits()));
+
+        event.getHook().sendMessageEmbeds(builder.build()).queue();
+        return true;
+    }
+}
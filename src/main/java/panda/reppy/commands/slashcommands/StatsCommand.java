@@ -2,15 +2,16 @@ package panda.reppy.commands.slashcommands;
 
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
 import net.dv8tion.jda.api.interactions.commands.OptionMapping;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import panda.reppy.commands.BaseCommand;
-import panda.reppy.database.ModelDao;
-import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.database.UserStatsDao;
+import panda.reppy.database.models.UserStats;
 
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
 
 public class StatsCommand extends BaseCommand {
 
@@ -20,63 +21,64 @@ public class StatsCommand extends BaseCommand {
         addOption(OptionType.USER, "user", "The user to get reputation stats for.");
     }
 
+    @Override
+    public boolean requiresDatabase() {
+        return true;
+    }
+
     @Override
     public boolean execute(SlashCommandEvent event) {
+        run(event);
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<?> run(SlashCommandEvent event) {
         List<OptionMapping> options = event.getOptions();
         Member requester = event.getMember();
         Member requested = requester;
-        String requestedId = requested.getId();
 
         if (options.size() > 0) {
             requested = options.get(0).getAsMember();
-            requestedId = requested.getId();
         }
 
+        if (requested == null) {
+            event.getHook().sendMessage("That user is not a member of this server.").queue();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final Member target = requested;
+
+        // Deferred by the dispatcher, answer through the hook once the stats arrive.
+        return UserStatsDao.retrieveUserStatsAsync(target.getIdLong()).handle((stats, error) -> {
+            if (error != null) {
+                event.getHook().sendMessage("Failed to fetch stats, please try again later.").queue();
+                return null;
+            }
+            event.getHook().sendMessageEmbeds(buildEmbed(requester, target, stats)).queue();
+            return null;
+        });
+    }
+
+    private MessageEmbed buildEmbed(Member requester, Member requested, UserStats stats) {
         EmbedBuilder builder = new EmbedBuilder()
                 .setTitle(String.format("Stats for %s", requested.getEffectiveName()))
                 .setAuthor(requester.getEffectiveName())
-                .addField("Reputation", Integer.toString(0), false);
-
-        List<DatabaseModel> questionModels =
-                ModelDao.retrieveModelsByField("questions", "authorId", requestedId);
-
-        List<DatabaseModel> answerModels =
-                ModelDao.retrieveModelsByField("answers", "authorId", requestedId);
-
-        List<DatabaseModel> receivedVoteModels =
-                ModelDao.retrieveModelsByField("votes", "receiverId", requestedId);
-        List<DatabaseModel> givenVoteModels =
-                ModelDao.retrieveModelsByField("votes", "authorId", requestedId);
-
-        Stream<DatabaseModel> acceptedAnswerModels =
-                answerModels.stream().filter(DatabaseModel::getAccepted);
+                .addField("Reputation", Long.toString(stats.getReputation()), false);
 
-        Stream<DatabaseModel> upvotesReceived =
-                receivedVoteModels.stream().filter(DatabaseModel::getVoteType);
-        Stream<DatabaseModel> downvotesReceived =
-                receivedVoteModels.stream().filter(voteModel -> !voteModel.getVoteType());
-
-        Stream<DatabaseModel> upvotesGiven =
-                givenVoteModels.stream().filter(DatabaseModel::getVoteType);
-        Stream<DatabaseModel> downvotesGiven =
-                givenVoteModels.stream().filter(voteModel -> !voteModel.getVoteType());
-
-
-        builder.addField("Questions Asked", Integer.toString(questionModels.size()), true);
+        builder.addField("Questions Asked", Long.toString(stats.getQuestions()), true);
         builder.addField("\u200b", "\u200b", true);
         builder.addField("\u200b", "\u200b", true);
-        builder.addField("Answers Posted", Integer.toString(answerModels.size()), true);
-        builder.addField("Accepted Answers", Long.toString(acceptedAnswerModels.count()), true);
+        builder.addField("Answers Posted", Long.toString(stats.getAnswers()), true);
+        builder.addField("Accepted Answers", Long.toString(stats.getAcceptedAnswers()), true);
         builder.addField("\u200b", "\u200b", true);
-        builder.addField("<:upvote:934992735033761832> Upvotes Given", Long.toString(upvotesGiven.count()), true);
-        builder.addField("<:upvote:934992735033761832> Upvotes Received", Long.toString(upvotesReceived.count()), true);
+        builder.addField("<:upvote:934992735033761832> Upvotes Given", Long.toString(stats.getUpvotesGiven()), true);
+        builder.addField("<:upvote:934992735033761832> Upvotes Received", Long.toString(stats.getUpvotesReceived()), true);
         builder.addField("\u200b", "\u200b", true);
-        builder.addField("<:downvote:934992734945685504> Downvotes Given", Long.toString(downvotesGiven.count()), true);
-        builder.addField("<:downvote:934992734945685504> Downvotes Received", Long.toString(downvotesReceived.count()), true);
+        builder.addField("<:downvote:934992734945685504> Downvotes Given", Long.toString(stats.getDownvotesGiven()), true);
+        builder.addField("<:downvote:934992734945685504> Downvotes Received", Long.toString(stats.getDownvotesReceived()), true);
         builder.addField("\u200b", "\u200b", true);
 
-        event.replyEmbeds(builder.build()).queue();
-
-        return true;
+        return builder.build();
     }
 }
@@ -2,11 +2,9 @@ package panda.reppy.commands.slashcommands;
 
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
 import panda.reppy.commands.ConditionalCommand;
-import panda.reppy.entities.BotMongoClient;
+import panda.reppy.util.Bot;
 import panda.reppy.util.constants.CommandConditionConstants;
 
-import java.net.UnknownHostException;
-
 public class Stop extends ConditionalCommand {
 
     public Stop() {
@@ -18,14 +16,7 @@ public class Stop extends ConditionalCommand {
         boolean valid = super.execute(event);
 
         if (valid) {
-            event.reply("Shutting down safely.").setEphemeral(true).queue(success -> {
-                try {
-                    BotMongoClient.getMongoClient().close();
-                } catch (UnknownHostException e) {
-                    System.out.println("No MongoClient to close.");
-                }
-                event.getJDA().shutdown();
-            });
+            event.getHook().sendMessage("Shutting down safely.").queue(success -> Bot.shutdown(event.getJDA()));
         }
 
         return valid;
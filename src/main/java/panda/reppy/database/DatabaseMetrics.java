@@ -0,0 +1,17 @@
+package panda.reppy.database;
+
+/**
+ * Receives the latency of every database operation run by the DAOs.
+ */
+public interface DatabaseMetrics {
+
+    DatabaseMetrics NONE = (operation, collectionName, durationNanos) -> {};
+
+    /**
+     *
+     * @param operation Short name of the operation, such as find or save
+     * @param collectionName Collection the operation ran against
+     * @param durationNanos Wall clock time of the operation
+     */
+    void recordOperation(String operation, String collectionName, long durationNanos);
+}
@@ -0,0 +1,96 @@
+package panda.reppy.database;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Indexes.ascending;
+import static com.mongodb.client.model.Indexes.compoundIndex;
+
+public final class DatabaseSchema {
+
+    /**
+     * DatabaseSchema is the single definition of the indexes each collection needs and of the
+     * queries ModelDao runs most often. Indexes are ensured at startup, and the hot queries are
+     * what /db-explain checks against those indexes.
+     */
+
+    public static final Map<String, List<IndexModel>> INDEXES;
+    public static final List<HotQuery> HOT_QUERIES;
+
+    static {
+        Map<String, List<IndexModel>> indexes = new LinkedHashMap<>();
+        indexes.put("questions", Arrays.asList(
+                index(ascending("authorId")),
+                index(ascending("threadId"))));
+        indexes.put("answers", Arrays.asList(
+                index(compoundIndex(ascending("authorId"), ascending("accepted"))),
+                index(ascending("threadId"))));
+        indexes.put("votes", Arrays.asList(
+                index(compoundIndex(ascending("authorId"), ascending("voteType"))),
+                index(compoundIndex(ascending("receiverId"), ascending("voteType"))),
+                index(compoundIndex(ascending("postId"), ascending("authorId")))));
+        INDEXES = Collections.unmodifiableMap(indexes);
+
+        HOT_QUERIES = Collections.unmodifiableList(Arrays.asList(
+                new HotQuery("questions", "authorId"),
+                new HotQuery("questions", "threadId"),
+                new HotQuery("answers", "authorId", "accepted"),
+                new HotQuery("answers", "threadId"),
+                new HotQuery("votes", "authorId", "voteType"),
+                new HotQuery("votes", "receiverId", "voteType"),
+                new HotQuery("votes", "postId", "authorId")));
+    }
+
+    private DatabaseSchema() {}
+
+    private static IndexModel index(final Bson keys) {
+        return new IndexModel(keys, new IndexOptions().background(true));
+    }
+
+    /** Creates any missing index, existing indexes are left untouched. */
+    public static void ensureIndexes(final MongoDatabase db) {
+        INDEXES.forEach((collectionName, indexes) -> db.getCollection(collectionName).createIndexes(indexes));
+    }
+
+    public static final class HotQuery {
+
+        private final String collectionName;
+        private final String fieldName;
+        private final List<String> projectedFields;
+
+        /**
+         *
+         * @param collectionName Collection the query runs against
+         * @param fieldName Field the query filters on
+         * @param projectedFields Other fields the caller reads, used to check for covered queries
+         */
+        public HotQuery(final String collectionName, final String fieldName, final String... projectedFields) {
+            this.collectionName = collectionName;
+            this.fieldName = fieldName;
+            this.projectedFields = Arrays.asList(projectedFields);
+        }
+
+        public String getCollectionName() {
+            return collectionName;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Document getProjection() {
+            Document projection = new Document("_id", 0).append(fieldName, 1);
+            projectedFields.forEach(field -> projection.append(field, 1));
+            return projection;
+        }
+    }
+}
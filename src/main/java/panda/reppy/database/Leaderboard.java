@@ -0,0 +1,192 @@
+package panda.reppy.database;
+
+import panda.reppy.database.models.UserStats;
+import panda.reppy.util.LongHashMap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.mongodb.client.model.Filters.in;
+
+public class Leaderboard {
+
+    /**
+     * Leaderboard ranks users by reputation in memory, so /leaderboard never queries the
+     * database. Standings are kept in a skip list ordered by reputation, and a map from user
+     * id to reputation finds the standing to replace when a user's reputation changes, making
+     * every change O(log n).
+     *
+     * It is loaded from user_stats in one pass at startup and after a full stats rebuild. After
+     * every reputation change UserStatsDao sets the reputation its update returned, never a
+     * relative amount, so a change is counted once however it interleaves with a load. Users
+     * with no reputation are left out.
+     *
+     * Changes are serialised, pages are read without locking. A page read during a change may
+     * miss the changing user or show them twice.
+     *
+     * Changes made while a load streams user_stats still go to the current standings, and the
+     * users they touch are remembered. Once the loaded standings are swapped in, those users
+     * are read again, so a change the stream read too early is not lost.
+     */
+
+    private static final Comparator<Standing> RANKING = Comparator
+            .comparingLong((Standing standing) -> standing.reputation).reversed()
+            .thenComparingLong(standing -> standing.userId);
+
+    private static final Leaderboard instance = new Leaderboard();
+
+    private volatile ConcurrentSkipListSet<Standing> standings = new ConcurrentSkipListSet<>(RANKING);
+    private LongHashMap<Long> reputations = new LongHashMap<>();
+    // Users changed while a load runs, null when no load is running.
+    private Set<Long> touched;
+    private final Object loadLock = new Object();
+
+    public static Leaderboard getInstance() {
+        return instance;
+    }
+
+    /** Replaces the standings with the reputation of every user in user_stats. */
+    public void load() {
+        synchronized (loadLock) {
+            long start = System.nanoTime();
+            ConcurrentSkipListSet<Standing> loadedStandings = new ConcurrentSkipListSet<>(RANKING);
+            LongHashMap<Long> loadedReputations = new LongHashMap<>();
+
+            synchronized (this) {
+                touched = new HashSet<>();
+            }
+            try {
+                try (Stream<UserStats> users = UserStatsDao.streamReputations()) {
+                    users.filter(stats -> stats.getReputation() != 0).forEach(stats -> {
+                        loadedStandings.add(new Standing(stats.getId(), stats.getReputation()));
+                        loadedReputations.put(stats.getId(), stats.getReputation());
+                    });
+                }
+
+                synchronized (this) {
+                    standings = loadedStandings;
+                    reputations = loadedReputations;
+                }
+                reloadTouched();
+            } finally {
+                synchronized (this) {
+                    touched = null;
+                }
+            }
+            System.out.printf("Loaded %d leaderboard standings in %d ms.%n", size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    // Reads the users changed during the load again until a pass sees no new changes.
+    private void reloadTouched() {
+        while (true) {
+            Set<Long> userIds;
+            synchronized (this) {
+                if (touched.isEmpty()) {
+                    return;
+                }
+                userIds = touched;
+                touched = new HashSet<>();
+            }
+
+            Map<Long, Long> current = new HashMap<>();
+            try (Stream<UserStats> users = UserStatsDao.streamReputations(in("_id", userIds))) {
+                users.forEach(stats -> current.put(stats.getId(), stats.getReputation()));
+            }
+
+            synchronized (this) {
+                for (Long userId : userIds) {
+                    // Changed again while it was read, the next pass reads it once more.
+                    if (!touched.contains(userId)) {
+                        put(userId, current.getOrDefault(userId, 0L));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the amount to the reputation of the user. Only safe for reputations no load reads
+     * from user_stats, changes written there go through {@link #set}.
+     */
+    public synchronized void adjust(final long userId, final long amount) {
+        if (amount != 0) {
+            markTouched(userId);
+            Long current = reputations.get(userId);
+            put(userId, (current == null ? 0 : current) + amount);
+        }
+    }
+
+    /** Sets the reputation of the user. */
+    public synchronized void set(final long userId, final long reputation) {
+        markTouched(userId);
+        put(userId, reputation);
+    }
+
+    private void markTouched(final long userId) {
+        if (touched != null) {
+            touched.add(userId);
+        }
+    }
+
+    private void put(final long userId, final long reputation) {
+        Long previous = reputation != 0 ? reputations.put(userId, reputation) : reputations.remove(userId);
+        if (previous != null) {
+            standings.remove(new Standing(userId, previous));
+        }
+        if (reputation != 0) {
+            standings.add(new Standing(userId, reputation));
+        }
+    }
+
+    /**
+     *
+     * @param offset Number of standings to skip from the top
+     * @param limit Maximum number of standings to return
+     * @return Standings in rank order
+     */
+    public List<Standing> getPage(final int offset, final int limit) {
+        List<Standing> page = new ArrayList<>(limit);
+        Iterator<Standing> iterator = standings.iterator();
+        for (int skipped = 0; skipped < offset && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    public synchronized int size() {
+        return reputations.size();
+    }
+
+    public static final class Standing {
+
+        private final long userId;
+        private final long reputation;
+
+        private Standing(final long userId, final long reputation) {
+            this.userId = userId;
+            this.reputation = reputation;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public long getReputation() {
+            return reputation;
+        }
+    }
+}
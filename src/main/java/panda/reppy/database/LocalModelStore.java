@@ -0,0 +1,354 @@
+package panda.reppy.database;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import panda.reppy.database.codecs.ModelCodecProvider;
+import panda.reppy.database.models.Answer;
+import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.database.models.Question;
+import panda.reppy.database.models.Vote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+
+public class LocalModelStore implements ModelStore {
+
+    /**
+     * LocalModelStore keeps models on disk while Mongo is unreachable, so writes are neither
+     * lost nor blocked by an outage. ModelDao sends writes here while the database is down and
+     * hands them to Mongo with syncTo once it is back.
+     *
+     * Every write is appended to a log and synced to disk before it returns, and the latest
+     * version of each model is indexed in memory by _id, or by (authorId, postId) for votes.
+     * Finds scan the index, which only holds the models written since the last sync. After a
+     * sync the log is rewritten to hold only the models written during the sync.
+     *
+     * The log starts with LOG_MAGIC, followed by records of an int length, the CRC32 of the
+     * record, the collection name and the model as BSON. A torn or corrupt record ends the log
+     * and is truncated on open. No user stats are kept, they are adjusted when the models
+     * reach Mongo.
+     */
+
+    private static final int LOG_MAGIC = 0x524C4D31;
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+
+    private static final CodecRegistry codecs = fromProviders(new ModelCodecProvider());
+    private static final Map<String, Class<? extends DatabaseModel>> modelTypes = new HashMap<>();
+
+    static {
+        modelTypes.put(Question.COLLECTION_NAME, Question.class);
+        modelTypes.put(Answer.COLLECTION_NAME, Answer.class);
+        modelTypes.put(Vote.COLLECTION_NAME, Vote.class);
+    }
+
+    private final Path logPath;
+    private final Map<Object, Entry> entries = new LinkedHashMap<>();
+    private FileChannel channel;
+
+    public LocalModelStore(final Path logPath) throws IOException {
+        this.logPath = logPath;
+        this.channel = FileChannel.open(logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        replay();
+    }
+
+    @Override
+    public synchronized <T extends DatabaseModel> List<T> findByField(final String collectionName,
+                                                                      final Class<T> modelType,
+                                                                      final String fieldName,
+                                                                      final Object fieldValue) {
+        List<T> models = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.collectionName.equals(collectionName)
+                    && matches(new RawBsonDocument(entry.document).get(fieldName), fieldValue)) {
+                models.add(decode(entry.document, modelType));
+            }
+        }
+        return models;
+    }
+
+    @Override
+    public void save(final DatabaseModel model) {
+        saveAll(List.of(model));
+    }
+
+    @Override
+    public void saveAll(final Collection<? extends DatabaseModel> models) {
+        if (models.isEmpty()) {
+            return;
+        }
+
+        Map<Object, Entry> written = new LinkedHashMap<>();
+        for (DatabaseModel model : models) {
+            written.put(ModelDao.identity(model), new Entry(model.getCollectionName(), encode(model)));
+        }
+
+        synchronized (this) {
+            ModelDao.timed("local_save", models.iterator().next().getCollectionName(), () -> {
+                try {
+                    append(written.values());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to write the local store: " + e.getMessage(), e);
+                }
+                return null;
+            });
+            entries.putAll(written);
+        }
+    }
+
+    @Override
+    public void saveVotes(final Collection<Vote> votes) {
+        saveAll(votes);
+    }
+
+    public synchronized int getPendingCount() {
+        return entries.size();
+    }
+
+    /** Whether models are waiting to be synced. */
+    public boolean hasPending() {
+        return getPendingCount() > 0;
+    }
+
+    /**
+     * Saves every pending model to the target and trims the log. Models written while the
+     * sync runs stay pending for the next one.
+     *
+     * @return The number of models synced
+     */
+    public int syncTo(final ModelStore target) throws IOException {
+        List<Map.Entry<Object, Entry>> snapshot = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Object, Entry> pending : entries.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(pending));
+            }
+        }
+        if (snapshot.isEmpty()) {
+            return 0;
+        }
+
+        List<DatabaseModel> models = new ArrayList<>();
+        List<Vote> votes = new ArrayList<>();
+        for (Map.Entry<Object, Entry> pending : snapshot) {
+            Entry entry = pending.getValue();
+            DatabaseModel model = decode(entry.document, modelTypes.get(entry.collectionName));
+            if (model instanceof Vote) {
+                votes.add((Vote) model);
+            } else {
+                models.add(model);
+            }
+        }
+
+        target.saveAll(models);
+        target.saveVotes(votes);
+
+        synchronized (this) {
+            // Only drop the versions that were synced, newer writes replaced the others.
+            for (Map.Entry<Object, Entry> synced : snapshot) {
+                entries.remove(synced.getKey(), synced.getValue());
+            }
+            compact();
+        }
+        return snapshot.size();
+    }
+
+    /** Forces the log to disk and closes it. */
+    public synchronized void close() throws IOException {
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void append(final Collection<Entry> written) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>(written.size());
+        for (Entry entry : written) {
+            records.add(toRecord(entry));
+        }
+
+        channel.position(channel.size());
+        channel.write(records.toArray(new ByteBuffer[0]));
+        channel.force(false);
+    }
+
+    /**
+     * Rewrites the log to hold only the pending models, and swaps it in with an atomic move.
+     * The new log is written through the channel that replaces the current one, so the current
+     * channel stays open, and in use, until the move has succeeded.
+     */
+    private void compact() throws IOException {
+        Path compacted = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            out.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, LOG_MAGIC));
+            for (Entry entry : entries.values()) {
+                out.write(toRecord(entry));
+            }
+            out.force(false);
+            Files.move(compacted, logPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The current log still holds every pending model, keep appending to it. The next
+            // compaction truncates the temp file.
+            out.close();
+            throw e;
+        }
+
+        FileChannel replaced = channel;
+        channel = out;
+        try {
+            replaced.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close the replaced local store log: " + e.getMessage());
+        }
+    }
+
+    private synchronized void replay() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, LOG_MAGIC));
+            channel.force(false);
+            return;
+        }
+
+        // The log only holds unsynced models, so it is small enough to read at once.
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(logPath));
+        if (log.remaining() < Integer.BYTES || log.getInt() != LOG_MAGIC) {
+            throw new IOException("Local store " + logPath + " is not a model log.");
+        }
+
+        CRC32 crc = new CRC32();
+        while (log.remaining() >= HEADER_LENGTH) {
+            int start = log.position();
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length <= 0 || length > log.remaining()) {
+                log.position(start);
+                break;
+            }
+
+            byte[] record = new byte[length];
+            log.get(record);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != checksum) {
+                log.position(start);
+                break;
+            }
+
+            Entry entry = fromRecord(record);
+            entries.put(ModelDao.identity(decode(entry.document, modelTypes.get(entry.collectionName))), entry);
+        }
+
+        if (log.position() < size) {
+            System.out.printf("Truncating %d bytes of torn records from %s.%n", size - log.position(), logPath);
+            channel.truncate(log.position());
+            channel.force(false);
+        }
+        if (!entries.isEmpty()) {
+            System.out.printf("Loaded %d unsynced models from %s.%n", entries.size(), logPath);
+        }
+    }
+
+    private static ByteBuffer toRecord(final Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.document.length + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(entry.collectionName);
+        out.write(entry.document);
+        byte[] record = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + record.length);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        return buffer.flip();
+    }
+
+    private static Entry fromRecord(final byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int nameLength = buffer.getShort() & 0xFFFF;
+        String collectionName = new String(record, buffer.position(), nameLength, StandardCharsets.UTF_8);
+        int documentStart = buffer.position() + nameLength;
+
+        byte[] document = new byte[record.length - documentStart];
+        System.arraycopy(record, documentStart, document, 0, document.length);
+        return new Entry(collectionName, document);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] encode(final DatabaseModel model) {
+        Codec<DatabaseModel> codec = (Codec<DatabaseModel>) codecs.get(model.getClass());
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            codec.encode(writer, model, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    private static <T extends DatabaseModel> T decode(final byte[] document, final Class<T> modelType) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(document))) {
+            return codecs.get(modelType).decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    /** Compares a stored value with a query value the way an equality filter on Mongo would. */
+    private static boolean matches(final BsonValue stored, final Object value) {
+        if (stored == null || stored.isNull()) {
+            return value == null;
+        }
+        if (value instanceof Number && stored.isNumber()) {
+            return stored.asNumber().longValue() == ((Number) value).longValue();
+        }
+        if (value instanceof String && stored.isString()) {
+            return stored.asString().getValue().equals(value);
+        }
+        if (value instanceof Boolean && stored.isBoolean()) {
+            return stored.asBoolean().getValue() == (Boolean) value;
+        }
+        if (value instanceof ObjectId && stored.isObjectId()) {
+            return stored.asObjectId().getValue().equals(value);
+        }
+        return false;
+    }
+
+    // Compared by identity, so a sync only removes the exact version it saved.
+    private static final class Entry {
+
+        private final String collectionName;
+        private final byte[] document;
+
+        private Entry(final String collectionName, final byte[] document) {
+            this.collectionName = collectionName;
+            this.document = document;
+        }
+    }
+}
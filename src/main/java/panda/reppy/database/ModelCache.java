@@ -0,0 +1,146 @@
+package panda.reppy.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class ModelCache<V> {
+
+    /**
+     * ModelCache is a bounded read-through cache for query results, keyed by
+     * (collection, field, value). Entries are evicted least recently used once the cache is
+     * full, and expire after a fixed time to live.
+     *
+     * Writers must invalidate the keys they affect. A load that overlaps an invalidation is
+     * returned to its caller but not stored, so a slow read can never cache data older than a
+     * write that finished before it.
+     */
+
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Entry<V>> entries;
+
+    private long invalidations;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ModelCache(final int maximumSize, final long ttl, final TimeUnit unit) {
+        this.maximumSize = maximumSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<Key, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry<V>> eldest) {
+                if (size() > ModelCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key, or loads, caches and returns it.
+     */
+    public V get(final Key key, final Supplier<V> loader) {
+        long generation;
+
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.loadedAt < ttlNanos) {
+                    hits++;
+                    return entry.value;
+                }
+                entries.remove(key);
+                evictions++;
+            }
+            misses++;
+            generation = invalidations;
+        }
+
+        V value = loader.get();
+
+        synchronized (this) {
+            if (generation == invalidations && value != null) {
+                entries.put(key, new Entry<>(value, System.nanoTime()));
+            }
+        }
+
+        return value;
+    }
+
+    public synchronized void invalidate(final Key key) {
+        invalidations++;
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d/%d hits=%d misses=%d evictions=%d",
+                entries.size(), maximumSize, hits, misses, evictions);
+    }
+
+    public static final class Key {
+
+        private final String collectionName;
+        private final String fieldName;
+        private final Object fieldValue;
+
+        public Key(final String collectionName, final String fieldName, final Object fieldValue) {
+            this.collectionName = collectionName;
+            this.fieldName = fieldName;
+            this.fieldValue = fieldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return collectionName.equals(key.collectionName)
+                    && fieldName.equals(key.fieldName)
+                    && Objects.equals(fieldValue, key.fieldValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(collectionName, fieldName, fieldValue);
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long loadedAt;
+
+        private Entry(final V value, final long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -1,66 +1,420 @@
 package panda.reppy.database;
 
-import com.mongodb.client.FindIterable;
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.result.UpdateResult;
 import net.dv8tion.jda.api.entities.ThreadChannel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.database.models.Question;
+import panda.reppy.database.models.UserStats;
+import panda.reppy.database.models.Vote;
 import panda.reppy.entities.BotMongoClient;
 import panda.reppy.entities.QuestionBuilder;
+import panda.reppy.search.SearchIndex;
+import panda.reppy.search.TitleIndex;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static panda.reppy.database.Pipelines.*;
 
 public class ModelDao {
 
     public ModelDao() {}
 
-    /** Will always hit DB */
-    public static List<DatabaseModel> retrieveModelsByField(final String collectionName,
-                                         final String fieldName,
-                                         final String fieldValue) {
-        System.out.printf("Fetching models that have %s:%s in %s%n", fieldName, fieldValue, collectionName);
+    private static volatile DatabaseMetrics metrics = DatabaseMetrics.NONE;
 
-        List<DatabaseModel> toReturn = new ArrayList<>();
+    private static final ModelStore mongoStore = new MongoModelStore();
+    private static volatile LocalModelStore localStore;
+    private static volatile ModelStore storeOverride;
+
+    /** Models fetched per round trip by the streaming reads. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Runs the async variants of the DAO methods. The queue is bounded so a slow database rejects
+     * new work instead of piling it up, rejected calls complete their future exceptionally.
+     */
+    private static final ThreadPoolExecutor executor = createExecutor(4, 256);
+
+    private static ThreadPoolExecutor createExecutor(final int threads, final int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "ModelDao-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    static <R> CompletableFuture<R> supplyAsync(final Supplier<R> body) {
+        try {
+            return CompletableFuture.supplyAsync(body, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<R> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /** Finishes queued work and stops the database executor. */
+    public static void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void setMetrics(final DatabaseMetrics databaseMetrics) {
+        metrics = databaseMetrics != null ? databaseMetrics : DatabaseMetrics.NONE;
+    }
+
+    /**
+     * Sends every find and save to the store instead of Mongo, for running the bot without a
+     * database. Null goes back to Mongo. Streams, aggregations and explains always use Mongo.
+     */
+    public static void setModelStore(final ModelStore store) {
+        storeOverride = store;
+    }
+
+    /** Opens the store that takes the writes made while the database is unreachable. */
+    public static void openLocalStore(final Path logPath) throws IOException {
+        localStore = new LocalModelStore(logPath);
+    }
+
+    public static LocalModelStore getLocalStore() {
+        return localStore;
+    }
+
+    /** Forces the local store to disk and closes it, once nothing saves any more. */
+    public static void closeLocalStore() {
+        LocalModelStore local = localStore;
+        localStore = null;
+        if (local == null) {
+            return;
+        }
+
+        try {
+            local.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close the local store: " + e.getMessage());
+        }
+    }
+
+    /** Saves the models written during an outage to Mongo, called after each successful heartbeat. */
+    public static void syncLocalStore() {
+        LocalModelStore local = localStore;
+        if (local == null || !local.hasPending() || !BotMongoClient.isConnected()) {
+            return;
+        }
+
+        try {
+            int synced = local.syncTo(mongoStore);
+            System.out.printf("Synced %d models from the local store to the database.%n", synced);
+        } catch (IOException | MongoException e) {
+            System.out.println("Failed to sync the local store: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes go to the local store while the database is down, and keep going there until it
+     * is synced so a model is never saved to Mongo ahead of an older local version.
+     */
+    private static ModelStore writeStore() {
+        ModelStore override = storeOverride;
+        if (override != null) {
+            return override;
+        }
+
+        LocalModelStore local = localStore;
+        if (local != null && (!BotMongoClient.isConnected() || local.hasPending())) {
+            return local;
+        }
+        return mongoStore;
+    }
+
+    /**
+     * Saves to the write store. Models Mongo fails to write while the heartbeat still reports
+     * it connected, such as on a timeout at the start of an outage, go to the local store
+     * instead. Models Mongo rejected and failures to adjust user stats are thrown, the first
+     * would fail again on every sync and the second belongs to models already written.
+     */
+    private static void write(final Consumer<ModelStore> save) {
+        ModelStore store = writeStore();
+        try {
+            save.accept(store);
+        } catch (MongoModelStore.ModelWriteException e) {
+            LocalModelStore local = localStore;
+            if (store != mongoStore || local == null) {
+                throw e.getCause();
+            }
+            System.out.printf("Failed to save %d models to the database, keeping them locally: %s%n",
+                    e.getUnwritten().size(), e.getMessage());
+            local.saveAll(e.getUnwritten());
+        }
+    }
+
+    /** Runs a database operation and reports its latency to the metrics hook. */
+    static <R> R timed(final String operation, final String collectionName, final Supplier<R> body) {
+        long start = System.nanoTime();
+        try {
+            return body.get();
+        } finally {
+            metrics.recordOperation(operation, collectionName, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The returned list is read-only. While the database is down only the models in the local
+     * store are found.
+     */
+    public static <T extends DatabaseModel> List<T> retrieveModelsByField(final String collectionName,
+                                                                     final Class<T> modelType,
+                                                                     final String fieldName,
+                                                                     final Object fieldValue) {
+        ModelStore override = storeOverride;
+        LocalModelStore local = localStore;
+        if (override != null || (local != null && !BotMongoClient.isConnected())) {
+            ModelStore store = override != null ? override : local;
+            return Collections.unmodifiableList(store.findByField(collectionName, modelType, fieldName, fieldValue));
+        }
+
+        List<T> found = mongoStore.findByField(collectionName, modelType, fieldName, fieldValue);
+        if (local != null && local.hasPending()) {
+            found = withPending(found, local.findByField(collectionName, modelType, fieldName, fieldValue));
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    // Replaces stored models by the newer versions still waiting in the local store.
+    private static <T extends DatabaseModel> List<T> withPending(final List<T> stored, final List<T> pending) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+
+        Map<Object, T> merged = new LinkedHashMap<>();
+        for (T model : stored) {
+            merged.put(identity(model), model);
+        }
+        for (T model : pending) {
+            merged.put(identity(model), model);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    public static <T extends DatabaseModel> CompletableFuture<List<T>> retrieveModelsByFieldAsync(
+            final String collectionName, final Class<T> modelType, final String fieldName, final Object fieldValue) {
+        return supplyAsync(() -> retrieveModelsByField(collectionName, modelType, fieldName, fieldValue));
+    }
+
+    /**
+     * Streams the models of the collection matching the filter, reading only the projected
+     * fields. Models are fetched from the server batchSize at a time as the stream is consumed,
+     * so at most one batch is held in memory regardless of the collection size.
+     *
+     * The stream owns a server cursor, callers must close it, typically with try-with-resources.
+     */
+    public static <T extends DatabaseModel> Stream<T> streamModels(final String collectionName,
+                                                                  final Class<T> modelType, final Bson filter,
+                                                                  final Bson projection, final int batchSize) {
+        MongoDatabase db = BotMongoClient.getDatabase("reppy");
+        return stream(BotMongoClient.getCollectionByName(db, collectionName, modelType), filter, projection,
+                batchSize);
+    }
+
+    /** Streams every model of the collection, see {@link #streamModels(String, Class, Bson, Bson, int)}. */
+    public static <T extends DatabaseModel> Stream<T> streamModels(final String collectionName,
+                                                                  final Class<T> modelType, final Bson projection) {
+        return streamModels(collectionName, modelType, new Document(), projection, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Wraps a find on the collection in a lazy stream. Closing the stream closes the cursor and
+     * reports the time the stream was open to the metrics hook.
+     */
+    static <T> Stream<T> stream(final MongoCollection<T> collection, final Bson filter, final Bson projection,
+                                final int batchSize) {
+        String collectionName = collection.getNamespace().getCollectionName();
+        long start = System.nanoTime();
+
+        MongoCursor<T> cursor = collection.find(filter).projection(projection).batchSize(batchSize).iterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    cursor.close();
+                    metrics.recordOperation("stream", collectionName, System.nanoTime() - start);
+                });
+    }
+
+    /**
+     * Asks the query planner how a find on the collection would be executed.
+     *
+     * @return The winning plan of the query
+     */
+    public static Document explainQuery(final String collectionName, final Document filter,
+                                        final Document projection) {
         MongoDatabase db = BotMongoClient.getDatabase("reppy");
-        MongoCollection<DatabaseModel> collection =
-                BotMongoClient.getCollectionByName(db, collectionName);
 
-        FindIterable<DatabaseModel> models = collection.find(eq(fieldName, fieldValue));
-        models.forEach(toReturn::add);
+        Document find = new Document("find", collectionName)
+                .append("filter", filter)
+                .append("projection", projection);
+        Document explain = timed("explain", collectionName, () -> db.runCommand(new Document("explain", find).append("verbosity", "queryPlanner")));
 
-        return toReturn;
+        return explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
     }
 
-    private static void saveModelData(final DatabaseModel model) {
+    /**
+     * Counts the questions, answers and votes of a user in a single aggregation. The $facet
+     * yields one document even for a user without questions, and each $lookup groups the
+     * matching answers or votes server side. Requires MongoDB 3.6+.
+     */
+    public static UserStats aggregateUserStats(final long userId) {
         MongoDatabase db = BotMongoClient.getDatabase("reppy");
-        MongoCollection<DatabaseModel> collection =
-                BotMongoClient.getCollectionByName(db, model.getCollectionName());
 
-        UpdateResult result = collection.replaceOne(eq("_id", model.getId()), model);
-        if (result.getMatchedCount() > 0) {
-            if (result.getModifiedCount() > 0) {
-                System.out.println("Document updated.");
-            } else
-                System.out.println("No document updated, already up to date.");
-        } else {
-            collection.insertOne(model);
-            System.out.printf("Saved %s to %s collection.%n", model.getId(), model.getCollectionName());
+        List<Bson> pipeline = Arrays.asList(
+                new Document("$match", new Document("authorId", userId)),
+                new Document("$facet", new Document("questions", Collections.singletonList(
+                        new Document("$group", new Document("_id", null)
+                                .append("questions", new Document("$sum", 1)))))),
+                lookup("answers", "authorId", userId, "answers", new Document("_id", null)
+                        .append("answers", new Document("$sum", 1))
+                        .append("acceptedAnswers", countWhen(fieldIs("accepted", true)))),
+                lookup("votes", "authorId", userId, "given", new Document("_id", null)
+                        .append("upvotesGiven", countWhen(fieldIs("voteType", true)))
+                        .append("downvotesGiven", countWhen(fieldIs("voteType", false)))),
+                lookup("votes", "receiverId", userId, "received", new Document("_id", null)
+                        .append("upvotesReceived", countWhen(fieldIs("voteType", true)))
+                        .append("downvotesReceived", countWhen(fieldIs("voteType", false))))
+        );
+
+        UserStats stats = new UserStats(userId);
+        Document result = timed("aggregate", "questions", () ->
+                db.getCollection("questions").aggregate(pipeline).first());
+
+        if (result != null) {
+            stats.setQuestions(countOf(firstOf(result, "questions"), "questions"));
+            Document answers = firstOf(result, "answers");
+            stats.setAnswers(countOf(answers, "answers"));
+            stats.setAcceptedAnswers(countOf(answers, "acceptedAnswers"));
+            Document given = firstOf(result, "given");
+            stats.setUpvotesGiven(countOf(given, "upvotesGiven"));
+            stats.setDownvotesGiven(countOf(given, "downvotesGiven"));
+            Document received = firstOf(result, "received");
+            stats.setUpvotesReceived(countOf(received, "upvotesReceived"));
+            stats.setDownvotesReceived(countOf(received, "downvotesReceived"));
+            stats.setReputation(stats.calculateReputation());
         }
+
+        return stats;
+    }
+
+    /** Upserts a model by _id. */
+    public static <T extends DatabaseModel> void saveModelData(final T model) {
+        if (model.getId() == null) {
+            model.setId(new ObjectId());
+        }
+        write(store -> store.save(model));
+    }
+
+    public static <T extends DatabaseModel> CompletableFuture<Void> saveModelDataAsync(final T model) {
+        return supplyAsync(() -> {
+            saveModelData(model);
+            return null;
+        });
+    }
+
+    /** Upserts many models by _id, with one bulk write per collection. */
+    public static void saveAll(final Collection<? extends DatabaseModel> models) {
+        for (DatabaseModel model : models) {
+            if (model.getId() == null) {
+                model.setId(new ObjectId());
+            }
+        }
+        write(store -> store.saveAll(models));
+    }
+
+    /**
+     * Upserts votes by (authorId, postId) rather than _id, so a later vote of an author on a
+     * post replaces the earlier one.
+     */
+    static void saveVotes(final Collection<Vote> votes) {
+        if (!votes.isEmpty()) {
+            write(store -> store.saveVotes(votes));
+        }
+    }
+
+    static Bson voteKey(final Vote vote) {
+        return and(eq("authorId", vote.getAuthorId()), eq("postId", vote.getPostId()));
+    }
+
+    static Map.Entry<Long, Long> voteIds(final Vote vote) {
+        return new AbstractMap.SimpleImmutableEntry<>(vote.getAuthorId(), vote.getPostId());
+    }
+
+    /** The key a store upserts the model by, (authorId, postId) for votes and _id otherwise. */
+    static Object identity(final DatabaseModel model) {
+        return model instanceof Vote ? voteIds((Vote) model) : model.getId();
+    }
+
+    public static CompletableFuture<Void> saveAllAsync(final Collection<? extends DatabaseModel> models) {
+        return supplyAsync(() -> {
+            saveAll(models);
+            return null;
+        });
     }
 
     public static void generateQuestionModel(ThreadChannel threadChannel, QuestionBuilder questionBuilder) {
-        DatabaseModel newQuestion = new DatabaseModel();
-        newQuestion.setCollectionName("questions");
+        Question newQuestion = new Question();
         newQuestion.setId(new ObjectId());
         newQuestion.setTitle(questionBuilder.getTitle());
+        newQuestion.setBody(questionBuilder.getBody());
+        newQuestion.setCodeblock(questionBuilder.getCodeblock());
+        newQuestion.setOutput(questionBuilder.getOutput());
         newQuestion.setAuthorId(questionBuilder.getAuthorId());
-        newQuestion.setThreadId(threadChannel.getId());
+        newQuestion.setThreadId(threadChannel.getIdLong());
 
         saveModelData(newQuestion);
+        TitleIndex.getInstance().add(newQuestion.getThreadId(), newQuestion.getTitle());
+        if (SearchIndex.getInstance() != null) {
+            SearchIndex.getInstance().add(newQuestion);
+        }
+    }
+
+    public static CompletableFuture<Void> generateQuestionModelAsync(ThreadChannel threadChannel,
+                                                                     QuestionBuilder questionBuilder) {
+        return supplyAsync(() -> {
+            generateQuestionModel(threadChannel, questionBuilder);
+            return null;
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,36 @@
+package panda.reppy.database;
+
+import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.database.models.Vote;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage behind ModelDao. Mongo is the store of record; the local store keeps writes made
+ * while Mongo is unreachable and hands them back once it recovers.
+ *
+ * Callers assign the _id of models before saving them. Votes are keyed by (authorId, postId).
+ */
+public interface ModelStore {
+
+    /**
+     *
+     * @param collectionName Collection to search
+     * @param modelType Class of the models in the collection
+     * @param fieldName Field to match
+     * @param fieldValue Value the field must equal
+     * @return Every matching model
+     */
+    <T extends DatabaseModel> List<T> findByField(String collectionName, Class<T> modelType, String fieldName,
+                                                  Object fieldValue);
+
+    /** Upserts a model by _id. */
+    void save(DatabaseModel model);
+
+    /** Upserts models by _id. */
+    void saveAll(Collection<? extends DatabaseModel> models);
+
+    /** Upserts votes by (authorId, postId). */
+    void saveVotes(Collection<Vote> votes);
+}
@@ -0,0 +1,268 @@
+package panda.reppy.database;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWrapper;
+import org.bson.conversions.Bson;
+import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.database.models.Vote;
+import panda.reppy.entities.BotMongoClient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.mongodb.client.model.Filters.eq;
+
+final class MongoModelStore implements ModelStore {
+
+    /**
+     * MongoModelStore reads and writes the reppy database. Every write learns from the server
+     * whether it inserted a model or which version it replaced, so the user_stats counters are
+     * adjusted by the exact difference.
+     *
+     * A model write that fails without the server rejecting the model, such as a timeout, throws
+     * a ModelWriteException naming the models that were not written, so ModelDao can keep them
+     * locally. A failure to adjust user_stats is thrown as is: the models are already written and
+     * saving them again would not count them.
+     */
+
+    @Override
+    public <T extends DatabaseModel> List<T> findByField(final String collectionName, final Class<T> modelType,
+                                                         final String fieldName, final Object fieldValue) {
+        List<T> models = new ArrayList<>();
+        MongoCollection<T> collection = getCollection(collectionName, modelType);
+
+        ModelDao.timed("find", collectionName, () -> {
+            collection.find(eq(fieldName, fieldValue)).forEach(models::add);
+            return null;
+        });
+        return models;
+    }
+
+    /**
+     * Upserts the model by _id in a single round trip.
+     */
+    @Override
+    public void save(final DatabaseModel model) {
+        MongoCollection<DatabaseModel> collection = getCollection(model.getCollectionName(), modelTypeOf(model));
+
+        // The document as it was before the write, null if this inserted it.
+        DatabaseModel previous = writeModels(List.of(model), () -> ModelDao.timed("save", model.getCollectionName(),
+                () -> collection.findOneAndReplace(eq("_id", model.getId()), model, new FindOneAndReplaceOptions()
+                        .upsert(true)
+                        .returnDocument(ReturnDocument.BEFORE))));
+
+        Map<Long, Map<String, Long>> deltas = new HashMap<>();
+        UserStatsDao.addChange(deltas, previous, model);
+        UserStatsDao.applyDeltas(deltas);
+    }
+
+    /**
+     * Inserts the new models with one bulk write per collection and replaces the stored ones
+     * one at a time, see {@link #upsertAll(String, List, Function)}.
+     */
+    @Override
+    public void saveAll(final Collection<? extends DatabaseModel> models) {
+        Map<String, List<DatabaseModel>> byCollection = new LinkedHashMap<>();
+        for (DatabaseModel model : models) {
+            byCollection.computeIfAbsent(model.getCollectionName(), name -> new ArrayList<>()).add(model);
+        }
+
+        byCollection.forEach((collectionName, group) -> upsertAll(collectionName, group,
+                model -> eq("_id", model.getId())));
+    }
+
+    /**
+     * Upserts the votes by (authorId, postId), so a later vote of an author on a post replaces
+     * the earlier one. Stored votes keep their _id, new votes get theirs from the server.
+     */
+    @Override
+    public void saveVotes(final Collection<Vote> votes) {
+        if (votes.isEmpty()) {
+            return;
+        }
+
+        List<Vote> batch = new ArrayList<>(votes);
+        for (Vote vote : batch) {
+            vote.setId(null);
+        }
+        upsertAll(Vote.COLLECTION_NAME, batch, ModelDao::voteKey);
+    }
+
+    /**
+     * Inserts the models that are not stored yet with one bulk write of $setOnInsert upserts,
+     * and replaces the others with findOneAndReplace. User stats are adjusted from what each
+     * write reports it did, not from an earlier read, so two saves racing on the same model
+     * never count it twice. Only the last version of a model in the batch is saved.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends DatabaseModel> void upsertAll(final String collectionName, final List<T> models,
+                                                            final Function<T, Bson> keyOf) {
+        Map<Object, T> latest = new LinkedHashMap<>();
+        for (T model : models) {
+            latest.put(ModelDao.identity(model), model);
+        }
+        List<T> batch = new ArrayList<>(latest.values());
+
+        Class<T> modelType = (Class<T>) batch.get(0).getClass();
+        MongoCollection<T> collection = getCollection(collectionName, modelType);
+        FindOneAndReplaceOptions replace = new FindOneAndReplaceOptions()
+                .upsert(true)
+                .returnDocument(ReturnDocument.BEFORE);
+
+        // Applied even if a write fails, so the stats still match the writes that went through.
+        Map<Long, Map<String, Long>> deltas = new HashMap<>();
+        try {
+            List<T> stored = writeModels(batch, () -> insertNew(collection, batch, keyOf, deltas));
+            for (int i = 0; i < stored.size(); i++) {
+                T model = stored.get(i);
+                T previous = writeModels(stored.subList(i, stored.size()), () ->
+                        ModelDao.timed("save", collectionName, () ->
+                                collection.findOneAndReplace(keyOf.apply(model), model, replace)));
+                if (model.getId() == null && previous != null) {
+                    model.setId(previous.getId());
+                }
+                UserStatsDao.addChange(deltas, previous, model);
+            }
+        } catch (RuntimeException e) {
+            // The models written before the failure still count. If that fails as well, the
+            // stats failure is thrown so the batch is not saved again without its counts.
+            try {
+                UserStatsDao.applyDeltas(deltas);
+            } catch (RuntimeException statsFailure) {
+                statsFailure.addSuppressed(e);
+                throw statsFailure;
+            }
+            throw e;
+        }
+        UserStatsDao.applyDeltas(deltas);
+    }
+
+    /**
+     * Runs a model write, reporting a failure that was not the server rejecting the models as
+     * a ModelWriteException for the given models.
+     */
+    private static <R> R writeModels(final List<? extends DatabaseModel> models, final Supplier<R> write) {
+        try {
+            return write.get();
+        } catch (MongoWriteException | MongoBulkWriteException e) {
+            throw e;
+        } catch (MongoException e) {
+            throw new ModelWriteException(new ArrayList<>(models), e);
+        }
+    }
+
+    /**
+     * Inserts the models not stored yet and counts them as new.
+     *
+     * @return The models that were already stored, or inserted by a concurrent save
+     */
+    private static <T extends DatabaseModel> List<T> insertNew(final MongoCollection<T> collection,
+                                                               final List<T> models, final Function<T, Bson> keyOf,
+                                                               final Map<Long, Map<String, Long>> deltas) {
+        List<UpdateOneModel<T>> writes = new ArrayList<>(models.size());
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        for (T model : models) {
+            BsonDocument fields = insertFields(collection, model);
+            writes.add(new UpdateOneModel<>(keyOf.apply(model), new BsonDocument("$setOnInsert", fields), upsert));
+        }
+
+        String collectionName = collection.getNamespace().getCollectionName();
+        List<BulkWriteUpsert> upserts;
+        MongoBulkWriteException failure = null;
+        try {
+            upserts = ModelDao.timed("saveAll", collectionName, () ->
+                    collection.bulkWrite(writes, new BulkWriteOptions().ordered(false))).getUpserts();
+        } catch (MongoBulkWriteException e) {
+            upserts = e.getWriteResult().getUpserts();
+            failure = e;
+        }
+
+        boolean[] inserted = new boolean[models.size()];
+        for (BulkWriteUpsert upserted : upserts) {
+            T model = models.get(upserted.getIndex());
+            if (model.getId() == null) {
+                model.setId(upserted.getId().asObjectId().getValue());
+            }
+            inserted[upserted.getIndex()] = true;
+            UserStatsDao.addChange(deltas, null, model);
+        }
+
+        if (failure != null) {
+            for (BulkWriteError error : failure.getWriteErrors()) {
+                // A concurrent save inserted the same model first, it is replaced like a stored one.
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw failure;
+                }
+            }
+        }
+
+        List<T> stored = new ArrayList<>();
+        for (int i = 0; i < models.size(); i++) {
+            if (!inserted[i]) {
+                stored.add(models.get(i));
+            }
+        }
+        return stored;
+    }
+
+    // The encoded model without its _id, which the upsert takes from the filter or generates.
+    private static <T> BsonDocument insertFields(final MongoCollection<T> collection, final T model) {
+        BsonDocument fields = new BsonDocument();
+        BsonDocumentWrapper.asBsonDocument(model, collection.getCodecRegistry()).forEach((name, value) -> {
+            if (!name.equals("_id")) {
+                fields.put(name, value);
+            }
+        });
+        return fields;
+    }
+
+    private static <T extends DatabaseModel> MongoCollection<T> getCollection(final String collectionName,
+                                                                              final Class<T> modelType) {
+        MongoDatabase db = BotMongoClient.getDatabase("reppy");
+        return BotMongoClient.getCollectionByName(db, collectionName, modelType);
+    }
+
+    /** Thrown when models could not be written to Mongo, without the server rejecting them. */
+    static final class ModelWriteException extends RuntimeException {
+
+        private final List<DatabaseModel> unwritten;
+
+        private ModelWriteException(final List<DatabaseModel> unwritten, final MongoException cause) {
+            super(cause.getMessage(), cause);
+            this.unwritten = unwritten;
+        }
+
+        List<DatabaseModel> getUnwritten() {
+            return unwritten;
+        }
+
+        @Override
+        public synchronized MongoException getCause() {
+            return (MongoException) super.getCause();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<DatabaseModel> modelTypeOf(final DatabaseModel model) {
+        return (Class<DatabaseModel>) model.getClass();
+    }
+}
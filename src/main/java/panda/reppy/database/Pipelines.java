@@ -0,0 +1,54 @@
+package panda.reppy.database;
+
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Small builders for the aggregation stages shared by the DAOs.
+ */
+final class Pipelines {
+
+    private Pipelines() {}
+
+    // $sum widens to a long once a count no longer fits an int.
+    static long countOf(final Document result, final String fieldName) {
+        Number count = result.get(fieldName, Number.class);
+        return count == null ? 0 : count.longValue();
+    }
+
+    // The single grouped document of a $facet or $lookup array, empty when nothing matched.
+    static Document firstOf(final Document result, final String fieldName) {
+        List<Document> documents = result.getList(fieldName, Document.class);
+        return documents == null || documents.isEmpty() ? new Document() : documents.get(0);
+    }
+
+    static Document unionWith(final String collectionName, final Document... stages) {
+        return new Document("$unionWith", new Document("coll", collectionName)
+                .append("pipeline", Arrays.asList(stages)));
+    }
+
+    /** Groups the documents of another collection matching the field into a one element array. */
+    static Document lookup(final String collectionName, final String fieldName, final Object fieldValue,
+                           final String as, final Document group) {
+        return new Document("$lookup", new Document("from", collectionName)
+                .append("pipeline", Arrays.asList(
+                        new Document("$match", new Document(fieldName, fieldValue)),
+                        new Document("$group", group)))
+                .append("as", as));
+    }
+
+    static Document fieldIs(final String fieldName, final Object value) {
+        return new Document("$eq", Arrays.asList("$" + fieldName, value));
+    }
+
+    static Document when(final Document condition, final Object then, final Object otherwise) {
+        return new Document("$cond", Arrays.asList(condition, then, otherwise));
+    }
+
+    static Document countWhen(final Document... conditions) {
+        Object condition = conditions.length == 1 ? conditions[0] : new Document("$and", Arrays.asList(conditions));
+        return new Document("$sum", new Document("$cond", Arrays.asList(condition, 1, 0)));
+    }
+}
@@ -0,0 +1,61 @@
+package panda.reppy.database;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonType;
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class SnowflakeMigration {
+
+    /**
+     * SnowflakeMigration converts snowflakes stored as strings by earlier versions into Int64.
+     * Each field is rewritten server side by a pipeline update over the documents where it is
+     * still a string, so running it again once everything is converted only costs the lookups.
+     *
+     * user_stats is keyed by user id, it is rebuilt from the converted collections rather than
+     * converted in place.
+     */
+
+    private static final Map<String, List<String>> SNOWFLAKE_FIELDS;
+
+    static {
+        Map<String, List<String>> fields = new LinkedHashMap<>();
+        fields.put("questions", Arrays.asList("threadId", "authorId"));
+        fields.put("answers", Arrays.asList("threadId", "authorId"));
+        fields.put("votes", Arrays.asList("threadId", "authorId", "postId", "receiverId"));
+        SNOWFLAKE_FIELDS = Collections.unmodifiableMap(fields);
+    }
+
+    private SnowflakeMigration() {}
+
+    public static void migrate(final MongoDatabase db) {
+        long migrated = 0;
+
+        for (Map.Entry<String, List<String>> entry : SNOWFLAKE_FIELDS.entrySet()) {
+            MongoCollection<Document> collection = db.getCollection(entry.getKey());
+            for (String field : entry.getValue()) {
+                UpdateResult result = collection.updateMany(Filters.type(field, BsonType.STRING),
+                        Collections.singletonList(new Document("$set",
+                                new Document(field, new Document("$toLong", "$" + field)))));
+                if (result.getModifiedCount() > 0) {
+                    System.out.printf("Converted %d %s.%s snowflakes to Int64.%n",
+                            result.getModifiedCount(), entry.getKey(), field);
+                    migrated += result.getModifiedCount();
+                }
+            }
+        }
+
+        if (migrated > 0 || db.getCollection("user_stats").find(Filters.type("_id", BsonType.STRING)).first() != null) {
+            System.out.println("Rebuilding user stats with Int64 ids.");
+            UserStatsDao.rebuildAllUserStats();
+        }
+    }
+}
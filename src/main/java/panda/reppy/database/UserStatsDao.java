@@ -0,0 +1,240 @@
+package panda.reppy.database;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import panda.reppy.database.models.Answer;
+import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.database.models.Question;
+import panda.reppy.database.models.UserStats;
+import panda.reppy.database.models.Vote;
+import panda.reppy.entities.BotMongoClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.mongodb.client.model.Filters.eq;
+import static panda.reppy.database.Pipelines.*;
+
+public class UserStatsDao {
+
+    /**
+     * UserStatsDao maintains one counter document per user in the user_stats collection.
+     * Counters are adjusted with $inc whenever ModelDao saves a model, so reading the
+     * stats of a user is a single _id lookup. Reputation changes are also applied to the
+     * in-memory Leaderboard.
+     */
+
+    public static final String COLLECTION_NAME = "user_stats";
+
+    private static final ModelCache<UserStats> statsCache = new ModelCache<>(5000, 1, TimeUnit.MINUTES);
+
+    private UserStatsDao() {}
+
+    public static ModelCache<UserStats> getStatsCache() {
+        return statsCache;
+    }
+
+    private static ModelCache.Key cacheKey(final long userId) {
+        return new ModelCache.Key(COLLECTION_NAME, "_id", userId);
+    }
+
+    private static MongoCollection<UserStats> getCollection() {
+        MongoDatabase db = BotMongoClient.getDatabase("reppy");
+        return db.getCollection(COLLECTION_NAME, UserStats.class);
+    }
+
+    public static UserStats retrieveUserStats(final long userId) {
+        return statsCache.get(cacheKey(userId), () -> {
+            UserStats stats = ModelDao.timed("find", COLLECTION_NAME, () ->
+                    getCollection().find(eq("_id", userId)).first());
+            return stats != null ? stats : new UserStats(userId);
+        });
+    }
+
+    public static CompletableFuture<UserStats> retrieveUserStatsAsync(final long userId) {
+        return ModelDao.supplyAsync(() -> retrieveUserStats(userId));
+    }
+
+    /**
+     * Adds the difference between two versions of a model to the pending counter changes
+     * of every user involved.
+     *
+     * @param deltas Pending changes, keyed by user id and then by counter
+     * @param previous Stored version before the save, null for new models
+     * @param current Version that was saved
+     */
+    static void addChange(final Map<Long, Map<String, Long>> deltas, final DatabaseModel previous,
+                          final DatabaseModel current) {
+        addContribution(deltas, previous, -1);
+        addContribution(deltas, current, 1);
+    }
+
+    /**
+     * Writes the pending counter changes. Users whose reputation changes are updated one at a
+     * time and the leaderboard is set to the reputation the server returns, so a leaderboard
+     * load running alongside never counts a change twice. The other users share one bulk write.
+     */
+    static void applyDeltas(final Map<Long, Map<String, Long>> deltas) {
+        List<UpdateOneModel<UserStats>> updates = new ArrayList<>();
+        Map<Long, Document> reputationUpdates = new HashMap<>();
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+
+        deltas.forEach((userId, fields) -> {
+            Document increments = new Document();
+            fields.forEach((field, amount) -> {
+                if (amount != 0) {
+                    increments.append(field, amount);
+                }
+            });
+
+            if (increments.containsKey("reputation")) {
+                reputationUpdates.put(userId, increments);
+            } else if (!increments.isEmpty()) {
+                updates.add(new UpdateOneModel<>(eq("_id", userId), new Document("$inc", increments), upsert));
+            }
+        });
+
+        if (!updates.isEmpty()) {
+            ModelDao.timed("inc", COLLECTION_NAME, () ->
+                    getCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false)));
+            deltas.keySet().forEach(userId -> statsCache.invalidate(cacheKey(userId)));
+        }
+
+        FindOneAndUpdateOptions returnReputation = new FindOneAndUpdateOptions()
+                .upsert(true)
+                .projection(Projections.include("reputation"))
+                .returnDocument(ReturnDocument.AFTER);
+        reputationUpdates.forEach((userId, increments) -> {
+            UserStats updated = ModelDao.timed("inc", COLLECTION_NAME, () -> getCollection()
+                    .findOneAndUpdate(eq("_id", userId), new Document("$inc", increments), returnReputation));
+            statsCache.invalidate(cacheKey(userId));
+            Leaderboard.getInstance().set(userId, updated.getReputation());
+        });
+    }
+
+    /**
+     * Streams the id and reputation of every user in user_stats. The stream owns a server
+     * cursor and must be closed.
+     */
+    public static Stream<UserStats> streamReputations() {
+        return streamReputations(new Document());
+    }
+
+    /** Streams the id and reputation of the users matching the filter. The stream must be closed. */
+    public static Stream<UserStats> streamReputations(final Bson filter) {
+        return ModelDao.stream(getCollection(), filter, Projections.include("reputation"),
+                ModelDao.DEFAULT_BATCH_SIZE);
+    }
+
+    private static void addContribution(final Map<Long, Map<String, Long>> deltas, final DatabaseModel model,
+                                        final long sign) {
+        if (model instanceof Question) {
+            add(deltas, model.getAuthorId(), "questions", sign);
+        } else if (model instanceof Answer) {
+            add(deltas, model.getAuthorId(), "answers", sign);
+            if (((Answer) model).isAccepted()) {
+                add(deltas, model.getAuthorId(), "acceptedAnswers", sign);
+                add(deltas, model.getAuthorId(), "reputation", sign * UserStats.ACCEPTED_ANSWER_REPUTATION);
+            }
+        } else if (model instanceof Vote) {
+            Vote vote = (Vote) model;
+            if (vote.isUpvote()) {
+                add(deltas, vote.getAuthorId(), "upvotesGiven", sign);
+                add(deltas, vote.getReceiverId(), "upvotesReceived", sign);
+                add(deltas, vote.getReceiverId(), "reputation", sign * UserStats.UPVOTE_REPUTATION);
+            } else {
+                add(deltas, vote.getAuthorId(), "downvotesGiven", sign);
+                add(deltas, vote.getReceiverId(), "downvotesReceived", sign);
+                add(deltas, vote.getReceiverId(), "reputation", sign * UserStats.DOWNVOTE_REPUTATION);
+            }
+        }
+    }
+
+    private static void add(final Map<Long, Map<String, Long>> deltas, final long userId,
+                            final String field, final long amount) {
+        if (userId != 0) {
+            deltas.computeIfAbsent(userId, id -> new HashMap<>()).merge(field, amount, Long::sum);
+        }
+    }
+
+    /** Recomputes the counters of a single user from the raw collections. */
+    public static UserStats rebuildUserStats(final long userId) {
+        UserStats stats = ModelDao.aggregateUserStats(userId);
+        ModelDao.timed("replace", COLLECTION_NAME, () ->
+                getCollection().replaceOne(eq("_id", userId), stats, new ReplaceOptions().upsert(true)));
+        statsCache.invalidate(cacheKey(userId));
+        Leaderboard.getInstance().set(userId, stats.getReputation());
+        return stats;
+    }
+
+    /**
+     * Recomputes the counters of every user from the raw collections and replaces the
+     * user_stats collection with the result. Requires MongoDB 4.4+ for $unionWith.
+     */
+    public static void rebuildAllUserStats() {
+        MongoDatabase db = BotMongoClient.getDatabase("reppy");
+
+        Document accepted = fieldIs("accepted", true);
+        Document upvote = fieldIs("voteType", true);
+        Document downvote = fieldIs("voteType", false);
+
+        List<Bson> pipeline = Arrays.asList(
+                new Document("$project", new Document("_id", 0)
+                        .append("user", "$authorId")
+                        .append("questions", new Document("$literal", 1))),
+                unionWith("answers", new Document("$project", new Document("_id", 0)
+                        .append("user", "$authorId")
+                        .append("answers", new Document("$literal", 1))
+                        .append("acceptedAnswers", when(accepted, 1, 0))
+                        .append("reputation", when(accepted, UserStats.ACCEPTED_ANSWER_REPUTATION, 0)))),
+                unionWith("votes", new Document("$project", new Document("_id", 0)
+                        .append("user", "$authorId")
+                        .append("upvotesGiven", when(upvote, 1, 0))
+                        .append("downvotesGiven", when(downvote, 1, 0)))),
+                unionWith("votes", new Document("$project", new Document("_id", 0)
+                        .append("user", "$receiverId")
+                        .append("upvotesReceived", when(upvote, 1, 0))
+                        .append("downvotesReceived", when(downvote, 1, 0))
+                        .append("reputation", when(upvote, UserStats.UPVOTE_REPUTATION,
+                                when(downvote, UserStats.DOWNVOTE_REPUTATION, 0))))),
+                new Document("$match", new Document("user", new Document("$ne", null))),
+                new Document("$group", new Document("_id", "$user")
+                        .append("reputation", sumOf("reputation"))
+                        .append("questions", sumOf("questions"))
+                        .append("answers", sumOf("answers"))
+                        .append("acceptedAnswers", sumOf("acceptedAnswers"))
+                        .append("upvotesGiven", sumOf("upvotesGiven"))
+                        .append("upvotesReceived", sumOf("upvotesReceived"))
+                        .append("downvotesGiven", sumOf("downvotesGiven"))
+                        .append("downvotesReceived", sumOf("downvotesReceived"))),
+                new Document("$out", COLLECTION_NAME)
+        );
+
+        ModelDao.timed("rebuild", COLLECTION_NAME, () -> {
+            db.getCollection("questions").aggregate(pipeline).toCollection();
+            return null;
+        });
+        statsCache.invalidateAll();
+        Leaderboard.getInstance().load();
+    }
+
+    // Sums as a long so the rebuilt documents have the same field types as the $inc path.
+    private static Document sumOf(final String fieldName) {
+        return new Document("$sum", new Document("$toLong", "$" + fieldName));
+    }
+}
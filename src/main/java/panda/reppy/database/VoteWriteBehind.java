@@ -0,0 +1,316 @@
+package panda.reppy.database;
+
+import panda.reppy.database.models.Vote;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class VoteWriteBehind {
+
+    /**
+     * VoteWriteBehind buffers vote writes and saves them in batches. Votes are coalesced per
+     * (authorId, postId), so toggling a vote several times between flushes costs one write.
+     *
+     * Every vote is appended to a memory-mapped journal before it is acknowledged, and stays in
+     * it until the batch holding it is saved. After a successful flush the journal is rewritten
+     * to hold only the votes still pending, and on startup any votes left in it are replayed.
+     * Replaying is safe because votes are upserted by (authorId, postId). The journal is
+     * rewritten into a second file that replaces it with an atomic move, so a crash mid-rewrite
+     * leaves the old journal intact.
+     *
+     * The journal starts with JOURNAL_MAGIC, followed by records of an int length and the vote
+     * as an upvote byte and four snowflakes. A length of 0 marks the end. Journals written
+     * before snowflakes were longs have no magic and hold the ids as strings, they are still
+     * replayed and rewritten in the current format.
+     */
+
+    private static final int JOURNAL_SIZE = 8 * 1024 * 1024;
+    private static final int JOURNAL_MAGIC = 0x52564A32;
+    private static final int RECORD_LENGTH = 1 + 4 * Long.BYTES;
+    private static final int BATCH_SIZE = 100;
+    private static final long FLUSH_INTERVAL_SECONDS = 5;
+
+    private static VoteWriteBehind instance;
+
+    private final Path journalPath;
+    private FileChannel channel;
+    private MappedByteBuffer journal;
+    private final Map<VoteKey, Vote> pending = new LinkedHashMap<>();
+    // The batch being saved by flush, kept in the journal until the save succeeds.
+    private List<Vote> inFlight = Collections.emptyList();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    private VoteWriteBehind(final Path journalPath) throws IOException {
+        this.journalPath = journalPath;
+        this.channel = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+
+        replay();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "VoteWriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, 0, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void start(final Path journalPath) throws IOException {
+        if (instance == null) {
+            instance = new VoteWriteBehind(journalPath);
+        }
+    }
+
+    public static synchronized VoteWriteBehind getInstance() {
+        return instance;
+    }
+
+    /**
+     * Journals the vote and queues it for the next flush. Replaces any pending vote of the
+     * same author on the same post.
+     */
+    public void submit(final Vote vote) {
+        boolean flushNow;
+
+        while (true) {
+            synchronized (this) {
+                if (append(vote) || (compact() && append(vote))) {
+                    pending.put(new VoteKey(vote.getAuthorId(), vote.getPostId()), vote);
+                    flushNow = pending.size() >= BATCH_SIZE;
+                    break;
+                }
+            }
+
+            // Journal is full of unsaved votes, write them out before taking more.
+            flush();
+        }
+
+        if (flushNow) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /** Saves every pending vote and trims the journal. */
+    public void flush() {
+        synchronized (flushLock) {
+            List<Vote> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                inFlight = batch;
+                pending.clear();
+            }
+
+            try {
+                ModelDao.saveVotes(batch);
+            } catch (RuntimeException e) {
+                // Keep the votes for the next attempt, unless a newer vote replaced them meanwhile.
+                // Their records are still in the journal, ahead of any newer vote.
+                synchronized (this) {
+                    Map<VoteKey, Vote> retry = new LinkedHashMap<>();
+                    for (Vote vote : batch) {
+                        retry.put(new VoteKey(vote.getAuthorId(), vote.getPostId()), vote);
+                    }
+                    retry.putAll(pending);
+                    pending.clear();
+                    pending.putAll(retry);
+                    inFlight = Collections.emptyList();
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                inFlight = Collections.emptyList();
+                compact();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.out.println("Failed to flush votes: " + e.getMessage());
+        }
+    }
+
+    /** Flushes what it can and syncs the journal to disk. */
+    public void close() {
+        flusher.shutdown();
+        flushQuietly();
+
+        synchronized (this) {
+            journal.force();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close vote journal: " + e.getMessage());
+        }
+    }
+
+    private boolean append(final Vote vote) {
+        return append(journal, vote);
+    }
+
+    private static boolean append(final MappedByteBuffer journal, final Vote vote) {
+        int start = journal.position();
+
+        // Room for the length, the record and the end marker after it.
+        if (start + 4 + RECORD_LENGTH + 4 > journal.capacity()) {
+            return false;
+        }
+
+        journal.position(start + 4);
+        journal.put((byte) (vote.isUpvote() ? 1 : 0));
+        journal.putLong(vote.getAuthorId());
+        journal.putLong(vote.getPostId());
+        journal.putLong(vote.getReceiverId());
+        journal.putLong(vote.getThreadId());
+        journal.putInt(journal.position(), 0);
+
+        // Written last so a torn record reads as the end of the journal.
+        journal.putInt(start, RECORD_LENGTH);
+        return true;
+    }
+
+    /**
+     * Rewrites the journal to hold only the votes not saved yet, the batch in flight first so
+     * the newer pending votes win on replay. The votes are written to a second file, synced,
+     * and moved over the journal, the old journal stays in use if any step fails.
+     *
+     * @return True if the journal has room again
+     */
+    private boolean compact() {
+        Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        FileChannel compactedChannel = null;
+        try {
+            compactedChannel = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            MappedByteBuffer compacted = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+            compacted.putInt(JOURNAL_MAGIC);
+            compacted.putInt(compacted.position(), 0);
+
+            for (Vote vote : inFlight) {
+                if (!append(compacted, vote)) {
+                    compactedChannel.close();
+                    return false;
+                }
+            }
+            for (Vote vote : pending.values()) {
+                if (!append(compacted, vote)) {
+                    compactedChannel.close();
+                    return false;
+                }
+            }
+            compacted.force();
+
+            Files.move(compactedPath, journalPath, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+            FileChannel previous = channel;
+            channel = compactedChannel;
+            journal = compacted;
+            previous.close();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Failed to compact vote journal: " + e.getMessage());
+            if (compactedChannel != null && compactedChannel != channel) {
+                try {
+                    compactedChannel.close();
+                } catch (IOException closeFailure) {
+                    System.out.println("Failed to close compacted vote journal: " + closeFailure.getMessage());
+                }
+            }
+            return false;
+        }
+    }
+
+    private synchronized void replay() {
+        journal.position(0);
+        boolean legacy = journal.getInt(0) != JOURNAL_MAGIC;
+        if (!legacy) {
+            journal.position(4);
+        }
+
+        while (journal.remaining() >= 4) {
+            int start = journal.position();
+            int length = journal.getInt();
+            if (length <= 0 || length > journal.remaining()) {
+                journal.position(start);
+                break;
+            }
+
+            Vote vote = new Vote();
+            vote.setUpvote(journal.get() == 1);
+            vote.setAuthorId(legacy ? getLegacySnowflake() : journal.getLong());
+            vote.setPostId(legacy ? getLegacySnowflake() : journal.getLong());
+            vote.setReceiverId(legacy ? getLegacySnowflake() : journal.getLong());
+            vote.setThreadId(legacy ? getLegacySnowflake() : journal.getLong());
+            pending.put(new VoteKey(vote.getAuthorId(), vote.getPostId()), vote);
+        }
+
+        if (!pending.isEmpty()) {
+            System.out.printf("Replaying %d journaled votes.%n", pending.size());
+        }
+        compact();
+    }
+
+    /** Reads a string snowflake of the old journal format, null strings read as 0. */
+    private long getLegacySnowflake() {
+        int length = journal.getInt();
+        if (length < 0) {
+            return 0;
+        }
+
+        byte[] bytes = new byte[length];
+        journal.get(bytes);
+        return Long.parseUnsignedLong(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static final class VoteKey {
+
+        private final long authorId;
+        private final long postId;
+
+        private VoteKey(final long authorId, final long postId) {
+            this.authorId = authorId;
+            this.postId = postId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof VoteKey)) return false;
+            VoteKey key = (VoteKey) o;
+            return authorId == key.authorId && postId == key.postId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(authorId) + Long.hashCode(postId);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package panda.reppy.database.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import panda.reppy.database.models.Answer;
+
+public class AnswerCodec extends ModelCodec<Answer> {
+
+    @Override
+    public Class<Answer> getEncoderClass() {
+        return Answer.class;
+    }
+
+    @Override
+    protected Answer newModel() {
+        return new Answer();
+    }
+
+    @Override
+    protected void encodeFields(BsonWriter writer, Answer model) {
+        writer.writeBoolean("accepted", model.isAccepted());
+    }
+
+    @Override
+    protected boolean decodeField(String name, BsonReader reader, Answer model) {
+        if (name.equals("accepted")) {
+            model.setAccepted(reader.readBoolean());
+            return true;
+        }
+        return false;
+    }
+}
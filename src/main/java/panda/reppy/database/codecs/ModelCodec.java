@@ -0,0 +1,103 @@
+package panda.reppy.database.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import panda.reppy.database.models.DatabaseModel;
+
+public abstract class ModelCodec<T extends DatabaseModel> implements Codec<T> {
+
+    /**
+     * ModelCodec reads and writes the fields shared by every model, subclasses handle the
+     * fields of their own model type.
+     *
+     * Snowflakes are written as Int64, String snowflakes from before the migration are still
+     * read. Null fields and unset snowflakes are not written. Unknown fields, such as the
+     * collectionName field written by the old reflection based codec, are skipped when decoding.
+     */
+
+    protected abstract T newModel();
+
+    protected abstract void encodeFields(BsonWriter writer, T model);
+
+    /**
+     * @return False if the field is not part of this model and should be skipped
+     */
+    protected abstract boolean decodeField(String name, BsonReader reader, T model);
+
+    @Override
+    public void encode(BsonWriter writer, T model, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+
+        if (model.getId() != null) {
+            writer.writeObjectId("_id", model.getId());
+        }
+        writeSnowflake(writer, "threadId", model.getThreadId());
+        writeSnowflake(writer, "authorId", model.getAuthorId());
+        encodeFields(writer, model);
+
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        T model = newModel();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+
+            switch (name) {
+                case "_id":
+                    model.setId(reader.readObjectId());
+                    break;
+                case "threadId":
+                    model.setThreadId(readSnowflake(reader));
+                    break;
+                case "authorId":
+                    model.setAuthorId(readSnowflake(reader));
+                    break;
+                default:
+                    if (!decodeField(name, reader, model)) {
+                        reader.skipValue();
+                    }
+                    break;
+            }
+        }
+        reader.readEndDocument();
+
+        return model;
+    }
+
+    protected static void writeSnowflake(BsonWriter writer, String name, long value) {
+        if (value != 0) {
+            writer.writeInt64(name, value);
+        }
+    }
+
+    /** Reads a snowflake stored as Int64, or as a String by documents saved before the migration. */
+    protected static long readSnowflake(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case STRING:
+                return Long.parseUnsignedLong(reader.readString());
+            case INT32:
+                return reader.readInt32();
+            default:
+                return reader.readInt64();
+        }
+    }
+
+    protected static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null) {
+            writer.writeString(name, value);
+        }
+    }
+}
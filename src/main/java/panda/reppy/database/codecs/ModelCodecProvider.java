@@ -0,0 +1,30 @@
+package panda.reppy.database.codecs;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import panda.reppy.database.models.Answer;
+import panda.reppy.database.models.Question;
+import panda.reppy.database.models.Vote;
+
+public class ModelCodecProvider implements CodecProvider {
+
+    private final QuestionCodec questionCodec = new QuestionCodec();
+    private final AnswerCodec answerCodec = new AnswerCodec();
+    private final VoteCodec voteCodec = new VoteCodec();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+        if (clazz == Question.class) {
+            return (Codec<T>) questionCodec;
+        }
+        if (clazz == Answer.class) {
+            return (Codec<T>) answerCodec;
+        }
+        if (clazz == Vote.class) {
+            return (Codec<T>) voteCodec;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+package panda.reppy.database.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import panda.reppy.database.models.Question;
+
+public class QuestionCodec extends ModelCodec<Question> {
+
+    @Override
+    public Class<Question> getEncoderClass() {
+        return Question.class;
+    }
+
+    @Override
+    protected Question newModel() {
+        return new Question();
+    }
+
+    @Override
+    protected void encodeFields(BsonWriter writer, Question model) {
+        writeString(writer, "title", model.getTitle());
+        writeString(writer, "body", model.getBody());
+        writeString(writer, "codeblock", model.getCodeblock());
+        writeString(writer, "output", model.getOutput());
+    }
+
+    @Override
+    protected boolean decodeField(String name, BsonReader reader, Question model) {
+        switch (name) {
+            case "title":
+                model.setTitle(reader.readString());
+                return true;
+            case "body":
+                model.setBody(reader.readString());
+                return true;
+            case "codeblock":
+                model.setCodeblock(reader.readString());
+                return true;
+            case "output":
+                model.setOutput(reader.readString());
+                return true;
+            default:
+                return false;
+        }
+    }
+}
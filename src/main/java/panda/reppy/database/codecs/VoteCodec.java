@@ -0,0 +1,42 @@
+package panda.reppy.database.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import panda.reppy.database.models.Vote;
+
+public class VoteCodec extends ModelCodec<Vote> {
+
+    @Override
+    public Class<Vote> getEncoderClass() {
+        return Vote.class;
+    }
+
+    @Override
+    protected Vote newModel() {
+        return new Vote();
+    }
+
+    @Override
+    protected void encodeFields(BsonWriter writer, Vote model) {
+        writer.writeBoolean("voteType", model.isUpvote());
+        writeSnowflake(writer, "postId", model.getPostId());
+        writeSnowflake(writer, "receiverId", model.getReceiverId());
+    }
+
+    @Override
+    protected boolean decodeField(String name, BsonReader reader, Vote model) {
+        switch (name) {
+            case "voteType":
+                model.setUpvote(reader.readBoolean());
+                return true;
+            case "postId":
+                model.setPostId(readSnowflake(reader));
+                return true;
+            case "receiverId":
+                model.setReceiverId(readSnowflake(reader));
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package panda.reppy.database.models;
+
+public class Answer extends DatabaseModel {
+
+    public static final String COLLECTION_NAME = "answers";
+
+    private boolean accepted;
+
+    @Override
+    public String getCollectionName() {
+        return COLLECTION_NAME;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(boolean accepted) {
+        this.accepted = accepted;
+    }
+}
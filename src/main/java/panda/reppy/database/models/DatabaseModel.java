@@ -2,25 +2,15 @@ package panda.reppy.database.models;
 
 import org.bson.types.ObjectId;
 
-public class DatabaseModel {
+public abstract class DatabaseModel {
 
     private ObjectId id;
-    private String collectionName;
 
-    // Shared
-    private String threadId;
-    private String authorId;
+    // Shared, snowflakes are 0 when unset
+    private long threadId;
+    private long authorId;
 
-    // Answer Model
-    private Boolean isAccepted;
-
-    // Question Model
-    private String title;
-
-    // Vote Model
-    private Boolean voteType;
-    private String postId;
-    private String receiverId;
+    public abstract String getCollectionName();
 
     public ObjectId getId() {
         return id;
@@ -30,67 +20,19 @@ public class DatabaseModel {
         this.id = id;
     }
 
-    public String getCollectionName() {
-        return collectionName;
-    }
-
-    public void setCollectionName(String collectionName) {
-        this.collectionName = collectionName;
-    }
-
-    public String getThreadId() {
+    public long getThreadId() {
         return threadId;
     }
 
-    public void setThreadId(String threadId) {
+    public void setThreadId(long threadId) {
         this.threadId = threadId;
     }
 
-    public String getAuthorId() {
+    public long getAuthorId() {
         return authorId;
     }
 
-    public void setAuthorId(String authorId) {
+    public void setAuthorId(long authorId) {
         this.authorId = authorId;
     }
-
-    public Boolean getAccepted() {
-        return isAccepted;
-    }
-
-    public void setAccepted(Boolean accepted) {
-        isAccepted = accepted;
-    }
-
-    public String getTitle() {
-        return title;
-    }
-
-    public void setTitle(String title) {
-        this.title = title;
-    }
-
-    public Boolean getVoteType() {
-        return voteType;
-    }
-
-    public void setVoteType(Boolean voteType) {
-        this.voteType = voteType;
-    }
-
-    public String getPostId() {
-        return postId;
-    }
-
-    public void setPostId(String postId) {
-        this.postId = postId;
-    }
-
-    public String getReceiverId() {
-        return receiverId;
-    }
-
-    public void setReceiverId(String receiverId) {
-        this.receiverId = receiverId;
-    }
 }
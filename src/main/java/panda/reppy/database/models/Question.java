@@ -0,0 +1,48 @@
+package panda.reppy.database.models;
+
+public class Question extends DatabaseModel {
+
+    public static final String COLLECTION_NAME = "questions";
+
+    private String title;
+    private String body;
+    private String codeblock;
+    private String output;
+
+    @Override
+    public String getCollectionName() {
+        return COLLECTION_NAME;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public String getCodeblock() {
+        return codeblock;
+    }
+
+    public void setCodeblock(String codeblock) {
+        this.codeblock = codeblock;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+}
@@ -0,0 +1,107 @@
+package panda.reppy.database.models;
+
+public class UserStats {
+
+    public static final long UPVOTE_REPUTATION = 10;
+    public static final long DOWNVOTE_REPUTATION = -2;
+    public static final long ACCEPTED_ANSWER_REPUTATION = 15;
+
+    // Id of the user these stats belong to
+    private long id;
+
+    private long reputation;
+
+    private long questions;
+    private long answers;
+    private long acceptedAnswers;
+
+    private long upvotesGiven;
+    private long upvotesReceived;
+    private long downvotesGiven;
+    private long downvotesReceived;
+
+    public UserStats() {}
+
+    public UserStats(long id) {
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getReputation() {
+        return reputation;
+    }
+
+    public void setReputation(long reputation) {
+        this.reputation = reputation;
+    }
+
+    /** Reputation implied by the accepted answers and received votes of these stats. */
+    public long calculateReputation() {
+        return acceptedAnswers * ACCEPTED_ANSWER_REPUTATION
+                + upvotesReceived * UPVOTE_REPUTATION
+                + downvotesReceived * DOWNVOTE_REPUTATION;
+    }
+
+    public long getQuestions() {
+        return questions;
+    }
+
+    public void setQuestions(long questions) {
+        this.questions = questions;
+    }
+
+    public long getAnswers() {
+        return answers;
+    }
+
+    public void setAnswers(long answers) {
+        this.answers = answers;
+    }
+
+    public long getAcceptedAnswers() {
+        return acceptedAnswers;
+    }
+
+    public void setAcceptedAnswers(long acceptedAnswers) {
+        this.acceptedAnswers = acceptedAnswers;
+    }
+
+    public long getUpvotesGiven() {
+        return upvotesGiven;
+    }
+
+    public void setUpvotesGiven(long upvotesGiven) {
+        this.upvotesGiven = upvotesGiven;
+    }
+
+    public long getUpvotesReceived() {
+        return upvotesReceived;
+    }
+
+    public void setUpvotesReceived(long upvotesReceived) {
+        this.upvotesReceived = upvotesReceived;
+    }
+
+    public long getDownvotesGiven() {
+        return downvotesGiven;
+    }
+
+    public void setDownvotesGiven(long downvotesGiven) {
+        this.downvotesGiven = downvotesGiven;
+    }
+
+    public long getDownvotesReceived() {
+        return downvotesReceived;
+    }
+
+    public void setDownvotesReceived(long downvotesReceived) {
+        this.downvotesReceived = downvotesReceived;
+    }
+}
@@ -0,0 +1,40 @@
+package panda.reppy.database.models;
+
+public class Vote extends DatabaseModel {
+
+    public static final String COLLECTION_NAME = "votes";
+
+    // Stored as voteType, true for an upvote
+    private boolean upvote;
+    private long postId;
+    private long receiverId;
+
+    @Override
+    public String getCollectionName() {
+        return COLLECTION_NAME;
+    }
+
+    public boolean isUpvote() {
+        return upvote;
+    }
+
+    public void setUpvote(boolean upvote) {
+        this.upvote = upvote;
+    }
+
+    public long getPostId() {
+        return postId;
+    }
+
+    public void setPostId(long postId) {
+        this.postId = postId;
+    }
+
+    public long getReceiverId() {
+        return receiverId;
+    }
+
+    public void setReceiverId(long receiverId) {
+        this.receiverId = receiverId;
+    }
+}
@@ -1,17 +1,43 @@
 package panda.reppy.entities;
 
 import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientException;
+import com.mongodb.MongoException;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoServerException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.Document;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
+import panda.reppy.database.DatabaseSchema;
 import panda.reppy.database.ModelDao;
+import panda.reppy.database.SnowflakeMigration;
+import panda.reppy.database.codecs.ModelCodecProvider;
 import panda.reppy.database.models.DatabaseModel;
 
-import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
@@ -19,49 +45,373 @@ import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 public class BotMongoClient {
 
     /**
-     * isConnected used a global flag for commands that require
-     * a connection to the db.
+     * BotMongoClient owns the MongoClient shared by the DAOs. Pool and timeout settings are read
+     * from system properties, so a slow or unreachable database fails a request within a few
+     * seconds instead of blocking the thread that issued it:
+     *
+     *   reppy.mongo.maxPoolSize                   connections per server, default 20
+     *   reppy.mongo.minPoolSize                   connections kept open, default 0
+     *   reppy.mongo.maxWaitMillis                 wait for a free pooled connection, default 2000
+     *   reppy.mongo.serverSelectionTimeoutMillis  wait for a usable server, default 3000
+     *   reppy.mongo.connectTimeoutMillis          socket connect timeout, default 3000
+     *   reppy.mongo.heartbeatSeconds              interval of the health probe, default 10
+     *   reppy.mongo.failuresBeforeDisconnect      failed pings in a row before the database is down, default 2
+     *   reppy.mongo.staleClientGraceSeconds       longest wait for a replaced client to drain, default 30
+     *
+     * A heartbeat pings the database and keeps isConnected current, so commands can check it
+     * without a round trip. A single failed ping does not mark the database down, only
+     * failuresBeforeDisconnect failed pings in a row do. After FAILURES_BEFORE_RECONNECT failed
+     * pings in a row a new client replaces the current one. The replaced client is closed once
+     * the commands it was running have finished, or after the grace period, so a reconnect
+     * never fails work that was already on the wire.
+     *
+     * The heartbeat thread only pings and updates the connection state. Everything else a
+     * successful ping triggers runs on a separate warm-up thread, so a long load or migration
+     * never delays the pings that would notice an outage: indexes and migrations until they
+     * have succeeded once, then the heartbeat listeners. A ping while that work is still running
+     * does not queue it again. Warm-ups are listeners that stop running once they have
+     * succeeded, so startup loads that found the database down are retried until it comes back.
+     * A migration the server rejects, such as a snowflake that is not a number, is not retried
+     * until the next start.
      */
-    public static boolean isConnected;
+
+    private static final int FAILURES_BEFORE_RECONNECT = 3;
+
+    private static volatile boolean isConnected;
 
     private static String dbUri;
-    private static MongoClient mongoClient;
+    private static volatile MongoClient mongoClient;
+    // Commands started and not yet finished on mongoClient.
+    private static AtomicInteger inFlightCommands = new AtomicInteger();
+    private static ScheduledExecutorService heartbeat;
+    private static ExecutorService warmUpThread;
+    private static final AtomicBoolean warmUpQueued = new AtomicBoolean();
+    private static final List<Runnable> heartbeatListeners = new CopyOnWriteArrayList<>();
+
+    // Only touched by the warm-up thread.
+    private static volatile boolean schemaReady;
 
-    public BotMongoClient(final String dbUri) throws UnknownHostException {
+    // Only touched by probe and close, which are synchronized.
+    private static int failedPings;
+    private static final List<RetiredClient> retiredClients = new ArrayList<>();
+
+    public BotMongoClient(final String dbUri) {
         BotMongoClient.dbUri = dbUri;
         isConnected = false;
 
-        getMongoClient();
+        new ModelDao();
 
-        if (mongoClient != null) {
-            new ModelDao();
-        }
+        warmUpQueued.set(false);
+        warmUpThread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BotMongoClient-WarmUp");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // The first probe runs here so isConnected is current once the constructor returns.
+        probe();
+
+        long period = Long.getLong("reppy.mongo.heartbeatSeconds", 10);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BotMongoClient-Heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(BotMongoClient::probe, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs the listener on the warm-up thread after every successful ping, including the one
+     * made on construction.
+     */
+    public static void addHeartbeatListener(final Runnable listener) {
+        heartbeatListeners.add(listener);
+    }
+
+    /**
+     * Runs the task after the first successful ping, including the one made on construction,
+     * and again after every following ping until it completes without throwing.
+     *
+     * @param name What the task does, for the log
+     */
+    public static void addWarmUp(final String name, final Runnable task) {
+        heartbeatListeners.add(new WarmUp(name, task));
     }
 
-    public static MongoClient getMongoClient() throws UnknownHostException {
-        if (mongoClient == null) {
-            mongoClient = createMongoClient();
+    /**
+     * Waits for the warm-up work queued by earlier pings to finish.
+     *
+     * @return False if it was still running after the timeout
+     */
+    public static boolean awaitWarmUp(final long timeout, final TimeUnit unit) throws InterruptedException {
+        try {
+            warmUpThread.submit(() -> { }).get(timeout, unit);
+            return true;
+        } catch (ExecutionException | RejectedExecutionException e) {
+            return true;
+        } catch (TimeoutException e) {
+            return false;
         }
+    }
+
+    /** Whether the last heartbeat reached the database. */
+    public static boolean isConnected() {
+        return isConnected;
+    }
+
+    /** The current client, or null while it could not be created. */
+    public static MongoClient getMongoClient() {
         return mongoClient;
     }
 
-    private static MongoClient createMongoClient() {
-        CodecRegistry pojoCodecRegistry = fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
+    private static MongoClient createMongoClient(final AtomicInteger inFlight) {
+        // Models use their hand written codecs, the POJO codec only covers the remaining classes.
+        CodecRegistry codecRegistry = fromRegistries(fromProviders(new ModelCodecProvider()),
+                MongoClientSettings.getDefaultCodecRegistry(),
                 fromProviders(PojoCodecProvider.builder().automatic(true).build()));
         MongoClientSettings settings = MongoClientSettings.builder()
-                .codecRegistry(pojoCodecRegistry)
+                .codecRegistry(codecRegistry)
                 .applyConnectionString(new ConnectionString(dbUri))
+                .applyToConnectionPoolSettings(pool -> pool
+                        .maxSize(Integer.getInteger("reppy.mongo.maxPoolSize", 20))
+                        .minSize(Integer.getInteger("reppy.mongo.minPoolSize", 0))
+                        .maxWaitTime(Long.getLong("reppy.mongo.maxWaitMillis", 2000), TimeUnit.MILLISECONDS))
+                .applyToClusterSettings(cluster -> cluster
+                        .serverSelectionTimeout(Long.getLong("reppy.mongo.serverSelectionTimeoutMillis", 3000),
+                                TimeUnit.MILLISECONDS))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout(Integer.getInteger("reppy.mongo.connectTimeoutMillis", 3000),
+                                TimeUnit.MILLISECONDS))
+                .addCommandListener(new InFlightCounter(inFlight))
                 .build();
 
         return MongoClients.create(settings);
     }
 
+    private static synchronized void probe() {
+        closeDrainedClients();
+
+        try {
+            if (mongoClient == null) {
+                AtomicInteger inFlight = new AtomicInteger();
+                mongoClient = createMongoClient(inFlight);
+                inFlightCommands = inFlight;
+            }
+            getDatabase("reppy").runCommand(new Document("ping", 1));
+        } catch (MongoException | IllegalArgumentException | IllegalStateException e) {
+            onFailedPing(e);
+            return;
+        }
+
+        failedPings = 0;
+        if (!isConnected) {
+            isConnected = true;
+            System.out.println("Connected to the database.");
+        }
+        if (warmUpQueued.compareAndSet(false, true)) {
+            try {
+                warmUpThread.execute(BotMongoClient::warmUp);
+            } catch (RejectedExecutionException e) {
+                // Closed.
+                warmUpQueued.set(false);
+            }
+        }
+    }
+
+    private static void warmUp() {
+        try {
+            if (!schemaReady) {
+                schemaReady = prepareSchema();
+            }
+
+            for (Runnable listener : heartbeatListeners) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    System.out.println("Heartbeat listener failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            warmUpQueued.set(false);
+        }
+    }
+
+    private static void onFailedPing(final RuntimeException e) {
+        failedPings++;
+        int failuresBeforeDisconnect = Integer.getInteger("reppy.mongo.failuresBeforeDisconnect", 2);
+        if (isConnected && failedPings >= failuresBeforeDisconnect) {
+            isConnected = false;
+            System.out.println("Lost the database connection: " + e.getMessage());
+        } else if (failedPings == 1) {
+            System.out.println(isConnected
+                    ? "Database ping failed: " + e.getMessage()
+                    : "Database is unreachable: " + e.getMessage());
+        }
+
+        if (failedPings % FAILURES_BEFORE_RECONNECT == 0 && mongoClient != null) {
+            System.out.printf("Reconnecting to the database after %d failed pings.%n", failedPings);
+            reconnect();
+        }
+    }
+
+    /** Swaps in a new client first, then retires the old one until its commands have finished. */
+    private static void reconnect() {
+        MongoClient stale = mongoClient;
+        AtomicInteger staleInFlight = inFlightCommands;
+
+        AtomicInteger inFlight = new AtomicInteger();
+        MongoClient fresh;
+        try {
+            fresh = createMongoClient(inFlight);
+        } catch (IllegalArgumentException | IllegalStateException | MongoException e) {
+            System.out.println("Failed to create a new database client: " + e.getMessage());
+            return;
+        }
+        inFlightCommands = inFlight;
+        mongoClient = fresh;
+
+        retiredClients.add(new RetiredClient(stale, staleInFlight, System.nanoTime()));
+    }
+
+    private static void closeDrainedClients() {
+        long graceNanos = TimeUnit.SECONDS.toNanos(Long.getLong("reppy.mongo.staleClientGraceSeconds", 30));
+        Iterator<RetiredClient> clients = retiredClients.iterator();
+        while (clients.hasNext()) {
+            RetiredClient retired = clients.next();
+            int inFlight = retired.inFlight.get();
+            boolean expired = System.nanoTime() - retired.retiredAt >= graceNanos;
+            if (inFlight == 0 || expired) {
+                if (inFlight > 0) {
+                    System.out.printf("Closing a replaced database client with %d commands still running.%n",
+                            inFlight);
+                }
+                retired.client.close();
+                clients.remove();
+            }
+        }
+    }
+
+    private static boolean prepareSchema() {
+        try {
+            DatabaseSchema.ensureIndexes(getDatabase("reppy"));
+        } catch (MongoException e) {
+            System.out.println("Failed to ensure indexes: " + e.getMessage());
+            return false;
+        }
+
+        try {
+            SnowflakeMigration.migrate(getDatabase("reppy"));
+        } catch (MongoException e) {
+            if (isRejection(e)) {
+                System.out.println("Snowflake migration rejected, not retrying until restart: " + e.getMessage());
+                return true;
+            }
+            System.out.println("Failed to migrate snowflakes: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    // Whether the server refused the command itself, running it again would fail the same way.
+    private static boolean isRejection(final MongoException e) {
+        return e instanceof MongoServerException
+                && !(e instanceof MongoExecutionTimeoutException)
+                && !(e instanceof MongoNotPrimaryException)
+                && !(e instanceof MongoNodeIsRecoveringException);
+    }
+
+    /** Stops the heartbeat and the warm-ups and closes the client. */
+    public static synchronized void close() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        if (warmUpThread != null) {
+            warmUpThread.shutdownNow();
+        }
+        if (mongoClient != null) {
+            mongoClient.close();
+            mongoClient = null;
+        }
+        for (RetiredClient retired : retiredClients) {
+            retired.client.close();
+        }
+        retiredClients.clear();
+        isConnected = false;
+    }
+
     public static MongoDatabase getDatabase(final String dbName) {
-        return mongoClient.getDatabase(dbName);
+        MongoClient client = mongoClient;
+        if (client == null) {
+            throw new MongoClientException("Not connected to the database.");
+        }
+        return client.getDatabase(dbName);
+    }
+
+    public static <T extends DatabaseModel> MongoCollection<T> getCollectionByName(final MongoDatabase db,
+                                                                               final String collectionName,
+                                                                               final Class<T> modelType) {
+        return db.getCollection(collectionName, modelType);
     }
 
-    public static MongoCollection<DatabaseModel> getCollectionByName(final MongoDatabase db,
-                                                             final String collectionName) {
-        return db.getCollection(collectionName, DatabaseModel.class);
+    // A client replaced by a reconnect, kept open while commands it started are running.
+    private static final class RetiredClient {
+
+        private final MongoClient client;
+        private final AtomicInteger inFlight;
+        private final long retiredAt;
+
+        private RetiredClient(final MongoClient client, final AtomicInteger inFlight, final long retiredAt) {
+            this.client = client;
+            this.inFlight = inFlight;
+            this.retiredAt = retiredAt;
+        }
+    }
+
+    // A heartbeat listener that removes itself once its task has succeeded.
+    private static final class WarmUp implements Runnable {
+
+        private final String name;
+        private final Runnable task;
+
+        private WarmUp(final String name, final Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Failed to " + name + ", retrying after the next ping: " + e.getMessage());
+                return;
+            }
+            heartbeatListeners.remove(this);
+        }
+    }
+
+    // Counts the commands a client has started and not yet finished.
+    private static final class InFlightCounter implements CommandListener {
+
+        private final AtomicInteger inFlight;
+
+        private InFlightCounter(final AtomicInteger inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void commandStarted(final CommandStartedEvent event) {
+            inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void commandSucceeded(final CommandSucceededEvent event) {
+            inFlight.decrementAndGet();
+        }
+
+        @Override
+        public void commandFailed(final CommandFailedEvent event) {
+            inFlight.decrementAndGet();
+        }
     }
 }
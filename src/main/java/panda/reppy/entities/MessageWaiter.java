@@ -3,25 +3,45 @@ package panda.reppy.entities;
 import net.dv8tion.jda.api.events.GenericEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.EventListener;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import panda.reppy.listeners.GatewayRequirements;
+import panda.reppy.util.HashedWheelTimer;
+import panda.reppy.util.metrics.LatencyHistogram;
+import panda.reppy.util.metrics.MetricsRegistry;
 
-import java.util.HashSet;
+import java.util.EnumSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
+ * Waiters registered with a channel and author id are indexed by that pair, so a message only
+ * runs the waiters that could possibly match it. Waiters registered with only a predicate are
+ * kept in a fallback set that is checked for every message.
+ *
+ * Timeouts live on a hashed timer wheel and are cancelled as soon as their waiter fires, so
+ * re-registering a waiter for every reply does not leave dead timeout tasks behind.
  *
  * @author John Grosh (john.a.grosh@gmail.com)
  */
-public class MessageWaiter implements EventListener
+public class MessageWaiter implements EventListener, GatewayRequirements
 {
-    private final Set<WaitingEvent> set = new HashSet<>();
-    private final ScheduledExecutorService threadpool = Executors.newSingleThreadScheduledExecutor();
+    private final Map<WaiterKey, Set<WaitingEvent>> indexed = new ConcurrentHashMap<>();
+    private final Set<WaitingEvent> fallback = ConcurrentHashMap.newKeySet();
+    private final HashedWheelTimer timer = new HashedWheelTimer("MessageWaiter-Timeouts", 1, TimeUnit.SECONDS, 512);
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LatencyHistogram dispatchLatency = MetricsRegistry.histogram("waiter", "dispatch");
+
+    @Override
+    public EnumSet<GatewayIntent> getRequiredIntents()
+    {
+        return EnumSet.of(GatewayIntent.GUILD_MESSAGES);
+    }
 
     @Override
     public void onEvent(GenericEvent event)
@@ -30,46 +50,184 @@ public class MessageWaiter implements EventListener
             onGuildMessageReceived((MessageReceivedEvent) event);
     }
 
-    public synchronized void waitForGuildMessageReceived(Predicate<MessageReceivedEvent> condition, Consumer<MessageReceivedEvent> action,
-                                                         long timeout, TimeUnit unit, Runnable timeoutAction)
+    public void waitForGuildMessageReceived(Predicate<MessageReceivedEvent> condition, Consumer<MessageReceivedEvent> action,
+                                            long timeout, TimeUnit unit, Runnable timeoutAction)
     {
-        WaitingEvent we = new WaitingEvent(condition, action);
-        set.add(we);
+        WaitingEvent we = new WaitingEvent(null, condition, action);
+        scheduleTimeout(we, timeout, unit, timeoutAction);
+        waiting.incrementAndGet();
+        fallback.add(we);
+        removeIfDone(we);
+    }
+
+    /**
+     * Waits for a message sent by {@code authorId} in {@code channelId}. The condition is only tested
+     * against messages from that channel and author.
+     */
+    public void waitForGuildMessageReceived(long channelId, long authorId, Predicate<MessageReceivedEvent> condition,
+                                            Consumer<MessageReceivedEvent> action, long timeout, TimeUnit unit,
+                                            Runnable timeoutAction)
+    {
+        WaitingEvent we = new WaitingEvent(new WaiterKey(channelId, authorId), condition, action);
+        scheduleTimeout(we, timeout, unit, timeoutAction);
+        register(we);
+    }
+
+    /**
+     * Runs {@code action} for every message sent by {@code authorId} in {@code channelId} until the
+     * subscription is cancelled, or until no such message arrived for {@code idleTimeout}.
+     */
+    public Subscription subscribe(long channelId, long authorId, Consumer<MessageReceivedEvent> action,
+                                  long idleTimeout, TimeUnit unit, Runnable timeoutAction)
+    {
+        Subscription subscription = new Subscription(new WaiterKey(channelId, authorId), action,
+                unit.toNanos(idleTimeout), timeoutAction);
+        subscription.scheduleIdleCheck(subscription.idleNanos);
+        register(subscription);
+        return subscription;
+    }
+
+    private void register(WaitingEvent we)
+    {
+        waiting.incrementAndGet();
+        indexed.compute(we.key, (key, bucket) ->
+        {
+            if(bucket == null)
+                bucket = ConcurrentHashMap.newKeySet();
+            bucket.add(we);
+            return bucket;
+        });
+        removeIfDone(we);
+    }
+
+    /** Number of waiters that have neither fired nor timed out. */
+    public int getWaitingCount()
+    {
+        return waiting.get();
+    }
 
+    /** Number of timeouts still queued on the timer wheel. */
+    public long getPendingTimeouts()
+    {
+        return timer.pendingTimeouts();
+    }
+
+    public void onGuildMessageReceived(MessageReceivedEvent event)
+    {
+        long start = System.nanoTime();
+        Set<WaitingEvent> bucket = indexed.get(new WaiterKey(event.getChannel().getIdLong(), event.getAuthor().getIdLong()));
+        // Snapshot before attempting so that waiters registered by an action do not see this message.
+        if(bucket != null)
+            attemptAll(bucket.toArray(new WaitingEvent[0]), event);
+
+        if(!fallback.isEmpty())
+            attemptAll(fallback.toArray(new WaitingEvent[0]), event);
+
+        dispatchLatency.recordSince(start);
+    }
+
+    private void attemptAll(WaitingEvent[] waiters, MessageReceivedEvent event)
+    {
+        for(WaitingEvent we : waiters)
+            we.attempt(event);
+    }
+
+    private void scheduleTimeout(WaitingEvent we, long timeout, TimeUnit unit, Runnable timeoutAction)
+    {
         if(timeout > 0 && unit != null)
         {
-            threadpool.schedule(() ->
+            we.timeout = timer.newTimeout(() ->
             {
-                if(set.remove(we) && timeoutAction != null)
+                if(we.claim() && timeoutAction != null)
                     timeoutAction.run();
             }, timeout, unit);
         }
     }
 
-    public synchronized void onGuildMessageReceived(MessageReceivedEvent event)
+    // Covers a timeout that expired before the waiter was added to its set.
+    private void removeIfDone(WaitingEvent we)
+    {
+        if(we.done.get())
+            remove(we);
+    }
+
+    private void remove(WaitingEvent we)
+    {
+        if(we.key == null)
+        {
+            fallback.remove(we);
+            return;
+        }
+
+        indexed.computeIfPresent(we.key, (key, bucket) ->
+        {
+            bucket.remove(we);
+            return bucket.isEmpty() ? null : bucket;
+        });
+    }
+
+    private static final class WaiterKey
     {
-        WaitingEvent[] toRemove = set.toArray(new WaitingEvent[set.size()]);
+        final long channelId;
+        final long authorId;
+
+        WaiterKey(long channelId, long authorId)
+        {
+            this.channelId = channelId;
+            this.authorId = authorId;
+        }
 
-        // WaitingEvent#attempt invocations that return true have passed their condition tests
-        // and executed the action. We filter the ones that return false out of the toRemove and
-        // remove them all from the set.
-        set.removeAll(Stream.of(toRemove).filter(i -> i.attempt(event)).collect(Collectors.toSet()));
+        @Override
+        public boolean equals(Object o)
+        {
+            if(this == o)
+                return true;
+            if(!(o instanceof WaiterKey))
+                return false;
+            WaiterKey other = (WaiterKey) o;
+            return channelId == other.channelId && authorId == other.authorId;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(channelId) * 31 + Long.hashCode(authorId);
+        }
     }
 
     private class WaitingEvent
     {
+        final WaiterKey key;
         final Predicate<MessageReceivedEvent> condition;
         final Consumer<MessageReceivedEvent> action;
+        final AtomicBoolean done = new AtomicBoolean();
+        volatile HashedWheelTimer.Timeout timeout;
 
-        WaitingEvent(Predicate<MessageReceivedEvent> condition, Consumer<MessageReceivedEvent> action)
+        WaitingEvent(WaiterKey key, Predicate<MessageReceivedEvent> condition, Consumer<MessageReceivedEvent> action)
         {
+            this.key = key;
             this.condition = condition;
             this.action = action;
         }
 
+        /**
+         * Marks this waiter as finished and unregisters it. Only the first caller, either a matching
+         * message or the timeout, gets {@code true}.
+         */
+        boolean claim()
+        {
+            if(!done.compareAndSet(false, true))
+                return false;
+            if(timeout != null)
+                timeout.cancel();
+            waiting.decrementAndGet();
+            remove(this);
+            return true;
+        }
+
         boolean attempt(MessageReceivedEvent event)
         {
-            if(condition.test(event))
+            if(!done.get() && condition.test(event) && claim())
             {
                 action.accept(event);
                 return true;
@@ -77,4 +235,57 @@ public class MessageWaiter implements EventListener
             return false;
         }
     }
+
+    /**
+     * A waiter that stays registered across messages. Its timeout only fires once the author has
+     * been idle for the whole idle period; activity just moves the deadline, which is checked
+     * lazily when the current timeout expires.
+     */
+    public class Subscription extends WaitingEvent
+    {
+        private final long idleNanos;
+        private final Runnable timeoutAction;
+        private volatile long lastActivity = System.nanoTime();
+
+        private Subscription(WaiterKey key, Consumer<MessageReceivedEvent> action, long idleNanos, Runnable timeoutAction)
+        {
+            super(key, null, action);
+            this.idleNanos = idleNanos;
+            this.timeoutAction = timeoutAction;
+        }
+
+        @Override
+        boolean attempt(MessageReceivedEvent event)
+        {
+            if(done.get())
+                return false;
+            lastActivity = System.nanoTime();
+            action.accept(event);
+            return true;
+        }
+
+        private void scheduleIdleCheck(long delayNanos)
+        {
+            timeout = timer.newTimeout(this::checkIdle, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void checkIdle()
+        {
+            long idle = System.nanoTime() - lastActivity;
+            if(idle < idleNanos)
+            {
+                if(!done.get())
+                    scheduleIdleCheck(idleNanos - idle);
+                return;
+            }
+            if(claim() && timeoutAction != null)
+                timeoutAction.run();
+        }
+
+        /** Unregisters the subscription without running its timeout action. */
+        public void cancel()
+        {
+            claim();
+        }
+    }
 }
@@ -2,17 +2,17 @@ package panda.reppy.entities;
 
 public class QuestionBuilder {
 
-    private String authorId;
+    private final long authorId;
     private String title;
     private String body;
     private String codeblock;
     private String output;
 
-    public QuestionBuilder(String authorId) {
+    public QuestionBuilder(long authorId) {
         this.authorId = authorId;
     }
 
-    public String getAuthorId() {
+    public long getAuthorId() {
         return authorId;
     }
 
@@ -0,0 +1,230 @@
+package panda.reppy.entities;
+
+import panda.reppy.flags.StageState;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+public class QuestionConversation {
+
+    /**
+     * QuestionConversation drives the question builder as a table of stages keyed by StageState.
+     * Each session remembers its current stage, every message from its owner is routed to the
+     * handler of that stage, and the handler returns the stage to move to.
+     *
+     * The stages are built once and shared by every session. The menu is the pinned status
+     * message of the session, edited in place instead of posted again.
+     */
+
+    public interface Listener {
+
+        /** The member finished a complete question. */
+        void onDone(QuestionSession session);
+
+        /** The member quit the builder. */
+        void onQuit(QuestionSession session);
+
+        /** The member set a new title, sent before the menu is shown again. */
+        void onTitleSet(QuestionSession session);
+    }
+
+    private interface Stage {
+
+        void enter(QuestionSession session);
+
+        StageState handle(QuestionSession session, String content);
+    }
+
+    private final Map<StageState, Stage> stages = new EnumMap<>(StageState.class);
+    private final Listener listener;
+
+    public QuestionConversation(Listener listener) {
+        this.listener = listener;
+
+        stages.put(StageState.MENU, new MenuStage());
+        stages.put(StageState.TITLE, new FieldStage("title", "a title", QuestionBuilder::getTitle,
+                QuestionBuilder::setTitle, UnaryOperator.identity(), listener::onTitleSet));
+        stages.put(StageState.BODY, new FieldStage("body", "a body", QuestionBuilder::getBody,
+                QuestionBuilder::setBody, UnaryOperator.identity()));
+        stages.put(StageState.CODE_BLOCK, new FieldStage("codeblock", "a codeblock", QuestionBuilder::getCodeblock,
+                QuestionBuilder::setCodeblock, QuestionConversation::formatCodeblock));
+        stages.put(StageState.OUTPUT, new FieldStage("output", "an output log", QuestionBuilder::getOutput,
+                QuestionBuilder::setOutput, QuestionConversation::formatOutput));
+    }
+
+    /** Shows the menu of a freshly attached session. */
+    public void begin(QuestionSession session) {
+        moveTo(session, StageState.MENU);
+    }
+
+    /** Routes a message of the session owner to the stage the session is in. */
+    public void route(QuestionSession session, String content) {
+        StageState current = session.getStage();
+        if (current == StageState.FINISHED) {
+            return;
+        }
+        session.touch();
+
+        String lower = content.toLowerCase();
+        if (lower.equals("stop") || lower.equals("quit")) {
+            session.setStage(StageState.FINISHED);
+            listener.onQuit(session);
+            return;
+        }
+
+        StageState next = stages.get(current).handle(session, content);
+        if (next == StageState.FINISHED) {
+            session.setStage(StageState.FINISHED);
+            listener.onDone(session);
+        } else {
+            moveTo(session, next);
+        }
+    }
+
+    private void moveTo(QuestionSession session, StageState stage) {
+        session.setStage(stage);
+        stages.get(stage).enter(session);
+    }
+
+    public static String formatStatus(QuestionBuilder questionBuilder) {
+        return String.format(
+                "Reply with any of the fields below to begin.\n\n" +
+                "- %s Title*\n" +
+                "- %s Body*\n" +
+                "- %s Codeblock\n" +
+                "- %s Output\n\n" +
+                "Reply `done` when you are finished building your question.\n" +
+                "Reply `quit` when you no longer want to build a question.",
+                formatStatus(questionBuilder.getTitle()),
+                formatStatus(questionBuilder.getBody()),
+                formatStatus(questionBuilder.getCodeblock()),
+                formatStatus(questionBuilder.getOutput())
+        );
+    }
+
+    private static String formatStatus(String value) {
+        if (value != null) {
+            return "[ set ]";
+        }
+        return "[unset]";
+    }
+
+    private static String formatCodeblock(String content) {
+        if (content.contains("```lua")) content = content.replace("```lua", "");
+        if (content.contains("`")) content = content.replaceAll("`", "");
+
+        return "```lua\n" + content + "\n```";
+    }
+
+    private static String formatOutput(String content) {
+        if (content.contains("`")) content = content.replaceAll("`", "");
+
+        return "```\n" + content + "\n```";
+    }
+
+    private static final class MenuStage implements Stage {
+
+        @Override
+        public void enter(QuestionSession session) {
+            session.showStatus(session.getMemberMention() + ", Welcome to your personal Question Builder.\n\n"
+                    + formatStatus(session.getBuilder()));
+        }
+
+        @Override
+        public StageState handle(QuestionSession session, String content) {
+            switch (content.toLowerCase()) {
+                case "title":
+                    return StageState.TITLE;
+                case "body":
+                    return StageState.BODY;
+                case "codeblock":
+                    return StageState.CODE_BLOCK;
+                case "output":
+                    return StageState.OUTPUT;
+                case "done":
+                    return validate(session) ? StageState.FINISHED : StageState.MENU;
+                default:
+                    session.send("An invalid option was provided. " +
+                            "Please select from one of the fields in the pinned status message.");
+                    return StageState.MENU;
+            }
+        }
+
+        // Every problem is reported in one message.
+        private boolean validate(QuestionSession session) {
+            String title = session.getBuilder().getTitle();
+            String body = session.getBuilder().getBody();
+            StringJoiner problems = new StringJoiner("\n");
+
+            if (title == null) {
+                problems.add("Title is unset, please set the title of your question.");
+            } else if (title.split(" ").length < 6) {
+                problems.add("Title was not descriptive enough, please try a better title.");
+            }
+
+            if (body == null) {
+                problems.add("Body is unset, please set the body of your question.");
+            } else if (body.split(" ").length < 25) {
+                problems.add("There is not enough content in your question, please provide more details.");
+            }
+
+            if (problems.length() > 0) {
+                session.send(problems.toString());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class FieldStage implements Stage {
+
+        private final String name;
+        private final String article;
+        private final Function<QuestionBuilder, String> getter;
+        private final BiConsumer<QuestionBuilder, String> setter;
+        private final UnaryOperator<String> formatter;
+        private final Consumer<QuestionSession> onSet;
+
+        private FieldStage(String name, String article, Function<QuestionBuilder, String> getter,
+                           BiConsumer<QuestionBuilder, String> setter, UnaryOperator<String> formatter) {
+            this(name, article, getter, setter, formatter, session -> {});
+        }
+
+        private FieldStage(String name, String article, Function<QuestionBuilder, String> getter,
+                           BiConsumer<QuestionBuilder, String> setter, UnaryOperator<String> formatter,
+                           Consumer<QuestionSession> onSet) {
+            this.name = name;
+            this.article = article;
+            this.getter = getter;
+            this.setter = setter;
+            this.formatter = formatter;
+            this.onSet = onSet;
+        }
+
+        @Override
+        public void enter(QuestionSession session) {
+            String value = getter.apply(session.getBuilder());
+            if (value != null) {
+                session.send("You currently have " + article + " set.\n" +
+                        Character.toUpperCase(name.charAt(0)) + name.substring(1) + ": " + value + "\n\n" +
+                        "If you do not want to override your current " + name + ", please reply with `back`.");
+            } else {
+                session.send("Please provide what the " + name + " of your question should be.");
+            }
+        }
+
+        @Override
+        public StageState handle(QuestionSession session, String content) {
+            if (!content.equalsIgnoreCase("back")) {
+                setter.accept(session.getBuilder(), formatter.apply(content));
+                onSet.accept(session);
+            }
+            return StageState.MENU;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package panda.reppy.entities;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.ThreadChannel;
+import panda.reppy.flags.QuestionState;
+import panda.reppy.flags.StageState;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class QuestionSession {
+
+    private final long memberId;
+    private final QuestionBuilder builder;
+    private final long startedAt;
+    // Last message of the owner, restored drafts expire once it is older than the idle timeout.
+    private volatile long lastActiveAt;
+
+    // NOT_ASKING for drafts restored from a snapshot until their owner resumes them.
+    private volatile QuestionState state;
+    private volatile StageState stage = StageState.MENU;
+
+    // Set once the builder thread exists, never persisted.
+    private volatile ThreadChannel thread;
+    private volatile String memberMention;
+    private volatile MessageWaiter.Subscription subscription;
+
+    // Pinned status message of the builder thread, edited in place after it is posted.
+    private CompletableFuture<Message> statusMessage;
+    private String statusContent;
+    private final AtomicInteger restCalls = new AtomicInteger();
+
+    public QuestionSession(long memberId, QuestionBuilder builder, QuestionState state) {
+        this(memberId, builder, state, System.currentTimeMillis());
+    }
+
+    public QuestionSession(long memberId, QuestionBuilder builder, QuestionState state, long lastActiveAt) {
+        this.memberId = memberId;
+        this.builder = builder;
+        this.state = state;
+        this.startedAt = System.currentTimeMillis();
+        this.lastActiveAt = lastActiveAt;
+    }
+
+    public long getMemberId() {
+        return memberId;
+    }
+
+    public QuestionBuilder getBuilder() {
+        return builder;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getLastActiveAt() {
+        return lastActiveAt;
+    }
+
+    /** Marks the session as active now. */
+    public void touch() {
+        lastActiveAt = System.currentTimeMillis();
+    }
+
+    public QuestionState getState() {
+        return state;
+    }
+
+    void setState(QuestionState state) {
+        this.state = state;
+    }
+
+    public StageState getStage() {
+        return stage;
+    }
+
+    public void setStage(StageState stage) {
+        this.stage = stage;
+    }
+
+    public ThreadChannel getThread() {
+        return thread;
+    }
+
+    public String getMemberMention() {
+        return memberMention;
+    }
+
+    public void attach(ThreadChannel thread, String memberMention, MessageWaiter.Subscription subscription) {
+        this.thread = thread;
+        this.memberMention = memberMention;
+        this.subscription = subscription;
+    }
+
+    /** Sends a message to the builder thread. */
+    public void send(String content) {
+        restCalls.incrementAndGet();
+        thread.sendMessage(content).queue();
+    }
+
+    /**
+     * Shows the content in the status message of the builder thread. The first call posts and
+     * pins it, later calls edit it, and content equal to what is shown costs no request.
+     */
+    public synchronized void showStatus(String content) {
+        if (content.equals(statusContent)) {
+            return;
+        }
+        statusContent = content;
+
+        if (statusMessage == null) {
+            restCalls.addAndGet(2);
+            statusMessage = thread.sendMessage(content).submit();
+            statusMessage.whenComplete((message, error) -> {
+                if (error != null) {
+                    System.out.println("Failed to post question status: " + error.getMessage());
+                } else {
+                    message.pin().queue();
+                }
+            });
+        } else {
+            restCalls.incrementAndGet();
+            statusMessage.thenAccept(message -> message.editMessage(content).queue());
+        }
+    }
+
+    /** Counts requests made for this session outside of send and showStatus. */
+    public void countRestCalls(int calls) {
+        restCalls.addAndGet(calls);
+    }
+
+    /** Discord REST requests made for this session so far. */
+    public int getRestCalls() {
+        return restCalls.get();
+    }
+
+    /** Stops routing messages to this session. */
+    public void detach() {
+        MessageWaiter.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package panda.reppy.entities;
+
+import panda.reppy.flags.QuestionState;
+import panda.reppy.util.LongHashMap;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class QuestionSessionStore {
+
+    /**
+     * QuestionSessionStore holds the in-progress question builder sessions, one per member.
+     * Sessions are removed as soon as they are posted, quit or time out.
+     *
+     * When a snapshot path is given the drafts are written to disk every minute and on shutdown,
+     * and loaded again on startup. Restored drafts stay inactive until their owner runs
+     * /post-question again, and expire after the same idle timeout as live sessions, counted
+     * from the last message of their owner. Expired drafts are dropped on load and by the
+     * snapshot task.
+     *
+     * Sessions are keyed by the primitive member id, every access locks the session map.
+     */
+
+    /** Minutes a session may go without a message from its owner before it ends. */
+    public static final long IDLE_TIMEOUT_MINUTES = 5;
+
+    private static final int SNAPSHOT_VERSION = 3;
+    // Snapshots before version 3 have no last activity, version 1 also stored the member id as a string.
+    private static final int UNTIMED_SNAPSHOT_VERSION = 2;
+    private static final int LEGACY_SNAPSHOT_VERSION = 1;
+
+    // Rough per-session overhead of the session, builder and map entry objects.
+    private static final long SESSION_OVERHEAD_BYTES = 160;
+
+    private final LongHashMap<QuestionSession> sessions = new LongHashMap<>();
+    private final Path snapshotPath;
+    private final long idleTimeoutMillis;
+
+    public QuestionSessionStore(final Path snapshotPath) {
+        this(snapshotPath, TimeUnit.MINUTES.toMillis(IDLE_TIMEOUT_MINUTES));
+    }
+
+    QuestionSessionStore(final Path snapshotPath, final long idleTimeoutMillis) {
+        this.snapshotPath = snapshotPath;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        if (snapshotPath != null) {
+            load();
+
+            ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "QuestionSessionStore");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotter.scheduleWithFixedDelay(() -> {
+                expireDrafts();
+                snapshot();
+            }, 1, 1, TimeUnit.MINUTES);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::snapshot, "QuestionSessionStore-Shutdown"));
+        }
+    }
+
+    /**
+     * Starts a session for the member, resuming a restored draft if there is one.
+     *
+     * @return The session, or null if the member already has an active session
+     */
+    public QuestionSession start(final long memberId) {
+        synchronized (sessions) {
+            QuestionSession existing = sessions.get(memberId);
+            if (existing == null) {
+                QuestionSession session = new QuestionSession(memberId, new QuestionBuilder(memberId),
+                        QuestionState.ASKING);
+                sessions.put(memberId, session);
+                return session;
+            }
+            if (existing.getState() == QuestionState.NOT_ASKING) {
+                existing.setState(QuestionState.ASKING);
+                existing.touch();
+                return existing;
+            }
+            return null;
+        }
+    }
+
+    public QuestionSession get(final long memberId) {
+        synchronized (sessions) {
+            return sessions.get(memberId);
+        }
+    }
+
+    public QuestionBuilder getBuilder(final long memberId) {
+        QuestionSession session = get(memberId);
+        return session != null ? session.getBuilder() : null;
+    }
+
+    /** Evicts the session of the member. */
+    public void end(final long memberId) {
+        QuestionSession session;
+        synchronized (sessions) {
+            session = sessions.remove(memberId);
+        }
+        if (session != null) {
+            session.detach();
+        }
+    }
+
+    /** Drops the restored drafts whose owner has been idle for longer than the idle timeout. */
+    public void expireDrafts() {
+        long now = System.currentTimeMillis();
+        synchronized (sessions) {
+            for (QuestionSession session : sessions.values()) {
+                if (session.getState() == QuestionState.NOT_ASKING && isExpired(session.getLastActiveAt(), now)) {
+                    sessions.remove(session.getMemberId());
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(final long lastActiveAt, final long now) {
+        return now - lastActiveAt > idleTimeoutMillis;
+    }
+
+    public int getSessionCount() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /** Estimated heap used by the stored sessions and their drafts. */
+    public long estimateFootprintBytes() {
+        long bytes = 0;
+        for (QuestionSession session : copySessions()) {
+            QuestionBuilder builder = session.getBuilder();
+            bytes += SESSION_OVERHEAD_BYTES
+                    + stringBytes(builder.getTitle())
+                    + stringBytes(builder.getBody())
+                    + stringBytes(builder.getCodeblock())
+                    + stringBytes(builder.getOutput());
+        }
+        return bytes;
+    }
+
+    private List<QuestionSession> copySessions() {
+        synchronized (sessions) {
+            return sessions.values();
+        }
+    }
+
+    private static long stringBytes(final String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    /** Writes every session to the snapshot file, replacing the previous snapshot atomically. */
+    public synchronized void snapshot() {
+        if (snapshotPath == null) {
+            return;
+        }
+
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+
+            // Copy first so the count matches the records written while sessions keep changing.
+            List<QuestionSession> snapshot = copySessions();
+            out.writeInt(snapshot.size());
+            for (QuestionSession session : snapshot) {
+                QuestionBuilder builder = session.getBuilder();
+                out.writeLong(session.getMemberId());
+                out.writeLong(session.getLastActiveAt());
+                writeNullable(out, builder.getTitle());
+                writeNullable(out, builder.getBody());
+                writeNullable(out, builder.getCodeblock());
+                writeNullable(out, builder.getOutput());
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to snapshot question sessions: " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Failed to replace question session snapshot: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(snapshotPath)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION && version != UNTIMED_SNAPSHOT_VERSION
+                    && version != LEGACY_SNAPSHOT_VERSION) {
+                System.out.println("Ignoring question session snapshot with unknown version.");
+                return;
+            }
+
+            // Older snapshots count every draft as last active when the snapshot was written.
+            long snapshotAt = Files.getLastModifiedTime(snapshotPath).toMillis();
+            long now = System.currentTimeMillis();
+            int expired = 0;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long memberId = version == LEGACY_SNAPSHOT_VERSION ? Long.parseUnsignedLong(in.readUTF()) : in.readLong();
+                long lastActiveAt = version == SNAPSHOT_VERSION ? in.readLong() : snapshotAt;
+                QuestionBuilder builder = new QuestionBuilder(memberId);
+                builder.setTitle(readNullable(in));
+                builder.setBody(readNullable(in));
+                builder.setCodeblock(readNullable(in));
+                builder.setOutput(readNullable(in));
+
+                if (isExpired(lastActiveAt, now)) {
+                    expired++;
+                    continue;
+                }
+                synchronized (sessions) {
+                    sessions.put(memberId, new QuestionSession(memberId, builder, QuestionState.NOT_ASKING,
+                            lastActiveAt));
+                }
+            }
+            if (expired > 0) {
+                System.out.printf("Dropped %d expired question drafts.%n", expired);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to load question session snapshot: " + e.getMessage());
+        }
+    }
+
+    private static void writeNullable(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
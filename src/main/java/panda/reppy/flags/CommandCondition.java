@@ -1,43 +1,74 @@
 package panda.reppy.flags;
 
+import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
 
 public class CommandCondition {
 
     /**
      * CommandCondition will hold requirements for a command to successfully execute.
      * These conditions can be one of the following:
+     *  - User is a specific member
      *  - User holds a role id
-     *  - User holds a permission flag
-     *  - User meets some other custom criteria?
+     *  - User holds every permission flag of the condition
+     *
+     * ConditionalCommand compiles its conditions into lookup sets, meetsCondition checks a
+     * single condition on its own.
      */
 
-    private final String snowflake;
+    private final long snowflake;
+    private final long permissions;
     private final SnowflakeType snowflakeType;
-    // TODO Implement permission field
 
     /**
      *
-     * @param snowflake String of the snowflake to check for
-     * @param snowflakeType
+     * @param snowflake The snowflake to check for
+     * @param snowflakeType MEMBER_ID or ROLE_ID
      */
-    public CommandCondition(final String snowflake, final SnowflakeType snowflakeType) {
+    public CommandCondition(final long snowflake, final SnowflakeType snowflakeType) {
+        if (snowflakeType == SnowflakeType.PERMISSION) {
+            throw new IllegalArgumentException("Permission conditions take permissions, not a snowflake");
+        }
         this.snowflake = snowflake;
+        this.permissions = 0;
         this.snowflakeType = snowflakeType;
     }
 
-    // TODO Implement permission constructor
+    /**
+     * @param permissions Permissions the member must all hold
+     */
+    public CommandCondition(final Permission... permissions) {
+        this.snowflake = 0;
+        this.permissions = Permission.getRaw(permissions);
+        this.snowflakeType = SnowflakeType.PERMISSION;
+    }
+
+    public long getSnowflake() {
+        return snowflake;
+    }
+
+    public long getPermissions() {
+        return permissions;
+    }
+
+    public SnowflakeType getSnowflakeType() {
+        return snowflakeType;
+    }
 
     public boolean meetsCondition(Member member) {
         if (snowflakeType == SnowflakeType.MEMBER_ID) {
-            return member.getId().equals(snowflake);
+            return member.getIdLong() == snowflake;
         }
         if (snowflakeType == SnowflakeType.ROLE_ID) {
-            return member.getRoles().contains(snowflake);
+            for (Role role : member.getRoles()) {
+                if (role.getIdLong() == snowflake) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        // TODO Implement permission check
-
-        return false;
+        return member.hasPermission(Permission.getPermissions(permissions));
     }
 }
@@ -2,5 +2,7 @@ package panda.reppy.flags;
 
 public enum SnowflakeType {
     MEMBER_ID,
-    ROLE_ID
+    ROLE_ID,
+    // Not a snowflake, the condition holds a mask of required permissions.
+    PERMISSION
 }
@@ -1,6 +1,10 @@
 package panda.reppy.flags;
 
 public enum StageState {
+    MENU,
+    TITLE,
     BODY,
     CODE_BLOCK,
+    OUTPUT,
+    FINISHED
 }
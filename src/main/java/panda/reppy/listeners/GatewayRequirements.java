@@ -0,0 +1,29 @@
+package panda.reppy.listeners;
+
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
+
+import java.util.EnumSet;
+
+public interface GatewayRequirements {
+
+    /**
+     * GatewayRequirements is implemented by event listeners to declare what they need from the
+     * gateway. The bot enables only the union of what its listeners declare, so every intent,
+     * cache flag and cached member has a listener that reads it.
+     */
+
+    /** Intents without which the listener would not receive its events. */
+    EnumSet<GatewayIntent> getRequiredIntents();
+
+    /** Cache flags the listener reads, none by default. */
+    default EnumSet<CacheFlag> getRequiredCacheFlags() {
+        return EnumSet.noneOf(CacheFlag.class);
+    }
+
+    /** Members the listener expects to find in the cache, none by default. */
+    default MemberCachePolicy getMemberCachePolicy() {
+        return MemberCachePolicy.NONE;
+    }
+}
@@ -1,37 +1,117 @@
 package panda.reppy.listeners;
 
 import net.dv8tion.jda.api.entities.ChannelType;
-import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import panda.reppy.util.Bot;
+import panda.reppy.util.LongHashMap;
 import panda.reppy.util.constants.SnowflakeConstants;
+import panda.reppy.util.metrics.MetricsRegistry;
 
-public class MessageListener extends ListenerAdapter {
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+public class MessageListener extends ListenerAdapter implements GatewayRequirements {
+
+    /**
+     * MessageListener routes received messages to handlers registered by channel id, by author
+     * id, or for direct messages. Routes are looked up with the primitive ids of the event, so
+     * a guild message no route is interested in is dropped without reading its content.
+     *
+     * Routes are added before the listener is registered with JDA and never change afterwards.
+     */
+
+    private final LongHashMap<List<Consumer<MessageReceivedEvent>>> channelRoutes = new LongHashMap<>();
+    private final LongHashMap<List<Consumer<MessageReceivedEvent>>> authorRoutes = new LongHashMap<>();
+    private final List<Consumer<MessageReceivedEvent>> privateRoutes = new ArrayList<>();
+
+    private final LongAdder routed = MetricsRegistry.counter("messages", "routed");
+    private final LongAdder filtered = MetricsRegistry.counter("messages", "filtered");
+
+    public MessageListener() {
+        routePrivate(event -> System.out.printf("[PM] %s: %s\n", event.getAuthor().getName(),
+                event.getMessage().getContentDisplay()));
+
+        routeChannel(SnowflakeConstants.ASK_QUESTION_CHANNEL_ID, event -> {
+            if (event.getAuthor().getIdLong() != SnowflakeConstants.BOT_OWNER_ID) {
+                event.getMessage().delete().queue();
+            }
+        });
+
+        routeAuthor(SnowflakeConstants.BOT_OWNER_ID, event -> {
+            if (event.getMessage().getContentRaw().equals("r!stop")) {
+                event.getMessage().reply("Shutting down safely.").queue(success -> Bot.shutdown(event.getJDA()));
+            }
+        });
+    }
+
+    /** Handles every guild message sent in the channel. */
+    public void routeChannel(final long channelId, final Consumer<MessageReceivedEvent> handler) {
+        addRoute(channelRoutes, channelId, handler);
+    }
+
+    /** Handles every guild message sent by the author. */
+    public void routeAuthor(final long authorId, final Consumer<MessageReceivedEvent> handler) {
+        addRoute(authorRoutes, authorId, handler);
+    }
+
+    /** Handles every direct message. */
+    public void routePrivate(final Consumer<MessageReceivedEvent> handler) {
+        privateRoutes.add(handler);
+    }
+
+    private static void addRoute(final LongHashMap<List<Consumer<MessageReceivedEvent>>> routes, final long id,
+                                 final Consumer<MessageReceivedEvent> handler) {
+        List<Consumer<MessageReceivedEvent>> handlers = routes.get(id);
+        if (handlers == null) {
+            handlers = new ArrayList<>();
+            routes.put(id, handlers);
+        }
+        handlers.add(handler);
+    }
+
+    @Override
+    public EnumSet<GatewayIntent> getRequiredIntents() {
+        EnumSet<GatewayIntent> intents = EnumSet.noneOf(GatewayIntent.class);
+        if (!channelRoutes.isEmpty() || !authorRoutes.isEmpty()) {
+            intents.add(GatewayIntent.GUILD_MESSAGES);
+        }
+        if (!privateRoutes.isEmpty()) {
+            intents.add(GatewayIntent.DIRECT_MESSAGES);
+        }
+        return intents;
+    }
 
     @Override
     public void onMessageReceived(MessageReceivedEvent event) {
         if (event.isFromType(ChannelType.PRIVATE)) {
-            System.out.printf("[PM] %s: %s\n", event.getAuthor().getName(),
-                    event.getMessage().getContentDisplay());
-        } else {
-            final Message message = event.getMessage();
-
-            final String authorId = event.getAuthor().getId();
-            final String messageContent = message.getContentDisplay();
-
-            if (event.getChannel().getId().equals(SnowflakeConstants.ASK_QUESTION_CHANNEL_ID)) {
-                if (!authorId.equals(SnowflakeConstants.BOT_OWNER_ID)) {
-                    message.delete().queue();
-                }
-            }
+            dispatch(privateRoutes, event);
+            return;
+        }
 
-            if (authorId.equals(SnowflakeConstants.BOT_OWNER_ID)) {
-                if (messageContent.equals("r!stop")) {
-                    event.getMessage().reply("Shutting down safely.").queue(success -> {
-                        event.getJDA().shutdown();
-                    });
-                }
-            }
+        List<Consumer<MessageReceivedEvent>> byChannel = channelRoutes.get(event.getChannel().getIdLong());
+        List<Consumer<MessageReceivedEvent>> byAuthor = authorRoutes.get(event.getAuthor().getIdLong());
+        if (byChannel == null && byAuthor == null) {
+            filtered.increment();
+            return;
+        }
+
+        if (byChannel != null) {
+            dispatch(byChannel, event);
+        }
+        if (byAuthor != null) {
+            dispatch(byAuthor, event);
+        }
+    }
+
+    private void dispatch(final List<Consumer<MessageReceivedEvent>> handlers, final MessageReceivedEvent event) {
+        routed.increment();
+        for (Consumer<MessageReceivedEvent> handler : handlers) {
+            handler.accept(event);
         }
     }
 }
@@ -2,15 +2,24 @@ package panda.reppy.listeners;
 
 import net.dv8tion.jda.api.events.interaction.SlashCommandEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.requests.GatewayIntent;
 import panda.reppy.commands.BaseCommand;
+import panda.reppy.commands.CommandDispatcher;
 
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 
-public class SlashCommandListener extends ListenerAdapter {
+public class SlashCommandListener extends ListenerAdapter implements GatewayRequirements {
 
     private static final Map<String, BaseCommand> commandMap = new HashMap<>();
 
+    private final CommandDispatcher dispatcher;
+
+    public SlashCommandListener(CommandDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     public static Map<String, BaseCommand> getCommandMap() { return new HashMap<>(commandMap); }
 
     public void initCommands(BaseCommand... commands) {
@@ -23,13 +32,19 @@ public class SlashCommandListener extends ListenerAdapter {
         commandMap.put(command.getName(), command);
     }
 
+    // Interactions are delivered without any intent, and carry the member that used them.
+    @Override
+    public EnumSet<GatewayIntent> getRequiredIntents() {
+        return EnumSet.noneOf(GatewayIntent.class);
+    }
+
     @Override
     public void onSlashCommand(SlashCommandEvent event) {
         String commandName = event.getName();
         BaseCommand command = commandMap.get(commandName);
 
         if (command != null) {
-            command.execute(event);
+            dispatcher.dispatch(command, event);
         }
     }
 }
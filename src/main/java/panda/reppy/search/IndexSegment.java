@@ -0,0 +1,301 @@
+package panda.reppy.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+final class IndexSegment {
+
+    /**
+     * IndexSegment is an immutable, memory-mapped part of the search index. It holds a set of
+     * documents and the postings of every term in them. Segments are written once, by a flush or
+     * a merge, and only read afterwards.
+     *
+     * File layout, all offsets absolute:
+     *   header      magic, version, generation, doc count, term count, total length,
+     *               doc index offset, term index offset
+     *   docs        per doc: int length, long threadId, title (short length + UTF-8)
+     *   doc index   int offset of every doc
+     *   terms       UTF-8 bytes of every term, sorted
+     *   postings    per term: (int docId, int frequency) for each doc containing it
+     *   term index  per term: int term offset, int term length, int doc frequency, int postings offset
+     */
+
+    private static final int MAGIC = 0x52505349;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int TERM_ENTRY_SIZE = 16;
+    private static final int MAX_STORED_LENGTH = 256;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final long generation;
+    private final int docCount;
+    private final int termCount;
+    private final long totalLength;
+    private final int docIndexOffset;
+    private final int termIndexOffset;
+
+    private IndexSegment(final Path path, final ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a search segment: " + path);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Search segment " + path + " has version " + buffer.getInt(4)
+                    + ", expected " + VERSION);
+        }
+        this.generation = buffer.getLong(8);
+        this.docCount = buffer.getInt(16);
+        this.termCount = buffer.getInt(20);
+        this.totalLength = buffer.getLong(24);
+        this.docIndexOffset = buffer.getInt(32);
+        this.termIndexOffset = buffer.getInt(36);
+    }
+
+    static IndexSegment open(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new IndexSegment(path, buffer);
+        }
+    }
+
+    /**
+     * Writes a segment and opens it. Doc ids are positions in docs, and the postings of every
+     * term must be sorted by doc id.
+     */
+    static IndexSegment write(final Path path, final long generation, final List<Doc> docs,
+                              final SortedMap<String, PostingList> postings) throws IOException {
+        byte[][] titles = new byte[docs.size()][];
+        byte[][] terms = new byte[postings.size()][];
+
+        long totalLength = 0;
+        int size = HEADER_SIZE;
+        for (int i = 0; i < docs.size(); i++) {
+            titles[i] = truncate(docs.get(i).title);
+            totalLength += docs.get(i).length;
+            size += 4 + 8 + 2 + titles[i].length;
+        }
+        size += 4 * docs.size();
+
+        int termIndex = 0;
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            terms[termIndex++] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            size += terms[termIndex - 1].length + 8 * entry.getValue().size + TERM_ENTRY_SIZE;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.position(HEADER_SIZE);
+
+        int[] docOffsets = new int[docs.size()];
+        for (int i = 0; i < docs.size(); i++) {
+            docOffsets[i] = out.position();
+            out.putInt(docs.get(i).length);
+            out.putLong(docs.get(i).threadId);
+            out.putShort((short) titles[i].length).put(titles[i]);
+        }
+
+        int docIndexOffset = out.position();
+        for (int offset : docOffsets) {
+            out.putInt(offset);
+        }
+
+        int[] termOffsets = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            termOffsets[i] = out.position();
+            out.put(terms[i]);
+        }
+
+        int[] postingOffsets = new int[terms.length];
+        termIndex = 0;
+        for (PostingList list : postings.values()) {
+            postingOffsets[termIndex++] = out.position();
+            for (int i = 0; i < list.size; i++) {
+                out.putInt(list.docIds[i]).putInt(list.frequencies[i]);
+            }
+        }
+
+        int termIndexOffset = out.position();
+        termIndex = 0;
+        for (PostingList list : postings.values()) {
+            out.putInt(termOffsets[termIndex]).putInt(terms[termIndex].length)
+                    .putInt(list.size).putInt(postingOffsets[termIndex]);
+            termIndex++;
+        }
+
+        out.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, generation)
+                .putInt(16, docs.size()).putInt(20, terms.length).putLong(24, totalLength)
+                .putInt(32, docIndexOffset).putInt(36, termIndexOffset);
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return open(path);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    int getTermCount() {
+        return termCount;
+    }
+
+    long getTotalLength() {
+        return totalLength;
+    }
+
+    int getDocLength(final int docId) {
+        return buffer.getInt(docOffset(docId));
+    }
+
+    long getThreadId(final int docId) {
+        return buffer.getLong(docOffset(docId) + 4);
+    }
+
+    String getTitle(final int docId) {
+        return readString(docOffset(docId) + 4 + 8);
+    }
+
+    /**
+     * @return Ordinal of the term, or -1 if no doc in this segment contains it
+     */
+    int findTerm(final String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compared = compareTerm(mid, key);
+            if (compared < 0) {
+                low = mid + 1;
+            } else if (compared > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    String getTerm(final int ordinal) {
+        int entry = termIndexOffset + ordinal * TERM_ENTRY_SIZE;
+        byte[] bytes = new byte[buffer.getInt(entry + 4)];
+        int offset = buffer.getInt(entry);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int getDocFrequency(final int ordinal) {
+        return buffer.getInt(termIndexOffset + ordinal * TERM_ENTRY_SIZE + 8);
+    }
+
+    int getPostingDoc(final int ordinal, final int index) {
+        return buffer.getInt(postingOffset(ordinal) + index * 8);
+    }
+
+    int getPostingFrequency(final int ordinal, final int index) {
+        return buffer.getInt(postingOffset(ordinal) + index * 8 + 4);
+    }
+
+    private int postingOffset(final int ordinal) {
+        return buffer.getInt(termIndexOffset + ordinal * TERM_ENTRY_SIZE + 12);
+    }
+
+    private int docOffset(final int docId) {
+        return buffer.getInt(docIndexOffset + docId * 4);
+    }
+
+    private int compareTerm(final int ordinal, final byte[] key) {
+        int entry = termIndexOffset + ordinal * TERM_ENTRY_SIZE;
+        int offset = buffer.getInt(entry);
+        int length = buffer.getInt(entry + 4);
+
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int compared = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String readString(final int offset) {
+        byte[] bytes = new byte[buffer.getShort(offset) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Thread names are at most 100 characters, the cap only guards the short length prefix.
+    private static byte[] truncate(final String value) {
+        String stored = value == null ? "" : value;
+        if (stored.length() > MAX_STORED_LENGTH) {
+            stored = stored.substring(0, MAX_STORED_LENGTH);
+        }
+        return stored.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static final class Doc {
+
+        final long threadId;
+        final String title;
+        final int length;
+
+        Doc(final long threadId, final String title, final int length) {
+            this.threadId = threadId;
+            this.title = title;
+            this.length = length;
+        }
+    }
+
+    static final class PostingList {
+
+        private int[] docIds = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(final int docId, final int frequency) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docIds[size] = docId;
+            frequencies[size] = frequency;
+            size++;
+        }
+    }
+}
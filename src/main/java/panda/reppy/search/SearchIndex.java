@@ -0,0 +1,585 @@
+package panda.reppy.search;
+
+import com.mongodb.client.model.Projections;
+import panda.reppy.database.ModelDao;
+import panda.reppy.database.models.Question;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+public class SearchIndex {
+
+    /**
+     * SearchIndex is a full text index over posted questions, kept on disk next to the bot so
+     * searches never touch Mongo.
+     *
+     * New questions go to an in-memory buffer that is searched directly. Once it holds enough
+     * questions, or every few minutes, the buffer is written out as an immutable memory-mapped
+     * segment. When there are too many segments they are merged into one. The segments file
+     * lists the live segments and is replaced atomically, so a crash mid-write leaves the index
+     * as it was.
+     *
+     * A question saved again replaces its older version. The older one stays in its segment,
+     * hidden from results, until the next merge drops it.
+     *
+     * Results are ranked with BM25. Title terms count twice. Document counts, lengths and
+     * frequencies only cover the latest version of every question, so replaced versions waiting
+     * for a merge do not skew the ranking.
+     *
+     * A marker file is written once every saved question has been indexed. An index without it,
+     * new or left half built by a failed load, is loaded again.
+     */
+
+    private static final String MANIFEST_NAME = "segments";
+    private static final String LOADED_NAME = "loaded";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int FLUSH_DOCS = 64;
+    private static final int MAX_SEGMENTS = 8;
+    private static final long FLUSH_INTERVAL_MINUTES = 5;
+    private static final int TITLE_BOOST = 2;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Generation of questions still in the buffer.
+    private static final long BUFFERED = Long.MAX_VALUE;
+
+    private static SearchIndex instance;
+
+    private final Path directory;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object maintenanceLock = new Object();
+    private final AtomicLong nextGeneration = new AtomicLong();
+    private final List<IndexSegment> segments = new ArrayList<>();
+    private final List<PendingDoc> buffer = new ArrayList<>();
+    private final Map<Long, Long> latestGeneration = new HashMap<>();
+    // Length of the latest version of every question, and their sum.
+    private final Map<Long, Integer> liveLengths = new HashMap<>();
+    private long liveLength;
+    private final ScheduledExecutorService maintainer;
+
+    private SearchIndex(final Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        openSegments();
+
+        this.maintainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SearchIndex");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintainer.scheduleWithFixedDelay(this::maintainQuietly, FLUSH_INTERVAL_MINUTES, FLUSH_INTERVAL_MINUTES,
+                TimeUnit.MINUTES);
+    }
+
+    public static synchronized void open(final Path directory) throws IOException {
+        if (instance == null) {
+            instance = new SearchIndex(directory);
+        }
+    }
+
+    public static synchronized SearchIndex getInstance() {
+        return instance;
+    }
+
+    /** Whether every saved question has been indexed once. */
+    public boolean isLoaded() {
+        return Files.exists(directory.resolve(LOADED_NAME));
+    }
+
+    /**
+     * Indexes every saved question, for an index that is not loaded yet. Questions already
+     * indexed are replaced, so a failed load can simply be run again.
+     */
+    public void loadQuestions() throws IOException {
+        long start = System.nanoTime();
+        try (Stream<Question> questions = ModelDao.streamModels(Question.COLLECTION_NAME, Question.class,
+                Projections.include("threadId", "title", "body", "codeblock", "output"))) {
+            questions.forEach(this::add);
+        }
+        flush();
+        if (!isLoaded()) {
+            Files.createFile(directory.resolve(LOADED_NAME));
+        }
+        System.out.printf("Indexed %d questions for search in %d ms.%n", size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /** Adds a question, replacing any version of it already indexed. */
+    public void add(final Question question) {
+        if (question.getThreadId() == 0) {
+            return;
+        }
+
+        PendingDoc doc = new PendingDoc(question);
+        boolean full;
+
+        lock.writeLock().lock();
+        try {
+            buffer.removeIf(pending -> pending.threadId == doc.threadId);
+            buffer.add(doc);
+            latestGeneration.put(doc.threadId, BUFFERED);
+            setLiveLength(doc.threadId, doc.length);
+            full = buffer.size() >= FLUSH_DOCS;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (full) {
+            maintainer.execute(this::maintainQuietly);
+        }
+    }
+
+    /**
+     * @return The total number of matching questions and the page from offset to offset + limit
+     */
+    public Results search(final String query, final int offset, final int limit) {
+        Set<String> terms = new LinkedHashSet<>(Tokenizer.tokenize(query));
+        if (terms.isEmpty()) {
+            return new Results(0, Collections.emptyList());
+        }
+
+        lock.readLock().lock();
+        try {
+            long docCount = latestGeneration.size();
+            double averageLength = docCount == 0 ? 1 : (double) liveLength / docCount;
+
+            // Scores keyed by segment index and doc id, the buffer is the last "segment".
+            Map<Long, Double> scores = new HashMap<>();
+
+            for (String term : terms) {
+                // Frequency of the term in every live doc containing it, keyed like scores.
+                Map<Long, Integer> frequencies = new HashMap<>();
+                for (int i = 0; i < segments.size(); i++) {
+                    IndexSegment segment = segments.get(i);
+                    int ordinal = segment.findTerm(term);
+                    for (int posting = 0; ordinal >= 0 && posting < segment.getDocFrequency(ordinal); posting++) {
+                        int docId = segment.getPostingDoc(ordinal, posting);
+                        if (isLatest(segment, docId)) {
+                            frequencies.put(((long) i << 32) | docId, segment.getPostingFrequency(ordinal, posting));
+                        }
+                    }
+                }
+                // Buffered questions are always the latest version.
+                for (int docId = 0; docId < buffer.size(); docId++) {
+                    Integer frequency = buffer.get(docId).frequencies.get(term);
+                    if (frequency != null) {
+                        frequencies.put(((long) segments.size() << 32) | docId, frequency);
+                    }
+                }
+                if (frequencies.isEmpty()) {
+                    continue;
+                }
+
+                int documentFrequency = frequencies.size();
+                double idf = Math.log(1 + (docCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                if (idf <= 0) {
+                    idf = 1e-6;
+                }
+
+                for (Map.Entry<Long, Integer> entry : frequencies.entrySet()) {
+                    double score = bm25(idf, entry.getValue(), docLength(entry.getKey()), averageLength);
+                    scores.merge(entry.getKey(), score, Double::sum);
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>();
+            for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+                int segmentIndex = (int) (entry.getKey() >>> 32);
+                int docId = (int) (long) entry.getKey();
+
+                if (segmentIndex == segments.size()) {
+                    PendingDoc doc = buffer.get(docId);
+                    hits.add(new Hit(doc.threadId, doc.title, entry.getValue()));
+                } else {
+                    IndexSegment segment = segments.get(segmentIndex);
+                    hits.add(new Hit(segment.getThreadId(docId), segment.getTitle(docId), entry.getValue()));
+                }
+            }
+
+            hits.sort(Collections.reverseOrder());
+            int from = Math.min(offset, hits.size());
+            int to = Math.min(from + limit, hits.size());
+            return new Results(hits.size(), new ArrayList<>(hits.subList(from, to)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Number of questions in the index. */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return latestGeneration.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Writes the buffered questions to a new segment. */
+    public void flush() throws IOException {
+        synchronized (maintenanceLock) {
+            List<PendingDoc> docs;
+            lock.readLock().lock();
+            try {
+                docs = new ArrayList<>(buffer);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (docs.isEmpty()) {
+                return;
+            }
+
+            List<IndexSegment.Doc> segmentDocs = new ArrayList<>();
+            SortedMap<String, IndexSegment.PostingList> postings = new TreeMap<>();
+            for (int docId = 0; docId < docs.size(); docId++) {
+                PendingDoc doc = docs.get(docId);
+                segmentDocs.add(new IndexSegment.Doc(doc.threadId, doc.title, doc.length));
+                for (Map.Entry<String, Integer> term : doc.frequencies.entrySet()) {
+                    postings.computeIfAbsent(term.getKey(), key -> new IndexSegment.PostingList())
+                            .add(docId, term.getValue());
+                }
+            }
+
+            long generation = nextGeneration.getAndIncrement();
+            IndexSegment segment = IndexSegment.write(segmentPath(generation), generation, segmentDocs, postings);
+
+            lock.writeLock().lock();
+            try {
+                segments.add(segment);
+                for (PendingDoc doc : docs) {
+                    // A question added again while this flush ran keeps its newer buffered version.
+                    if (removeIdentical(doc)) {
+                        latestGeneration.put(doc.threadId, generation);
+                    }
+                }
+                writeManifest();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /** Merges every segment into one once there are more than MAX_SEGMENTS. */
+    void mergeIfNeeded() throws IOException {
+        synchronized (maintenanceLock) {
+            List<IndexSegment> merging;
+            Map<Long, Long> latest;
+            lock.readLock().lock();
+            try {
+                if (segments.size() <= MAX_SEGMENTS) {
+                    return;
+                }
+                merging = new ArrayList<>(segments);
+                latest = new HashMap<>(latestGeneration);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            Set<Long> mergedGenerations = new HashSet<>();
+            List<IndexSegment.Doc> docs = new ArrayList<>();
+            List<int[]> docMaps = new ArrayList<>();
+
+            for (IndexSegment segment : merging) {
+                mergedGenerations.add(segment.getGeneration());
+                int[] docMap = new int[segment.getDocCount()];
+                for (int docId = 0; docId < docMap.length; docId++) {
+                    long threadId = segment.getThreadId(docId);
+                    Long generation = latest.get(threadId);
+                    if (generation != null && generation == segment.getGeneration()) {
+                        docMap[docId] = docs.size();
+                        docs.add(new IndexSegment.Doc(threadId, segment.getTitle(docId), segment.getDocLength(docId)));
+                    } else {
+                        docMap[docId] = -1;
+                    }
+                }
+                docMaps.add(docMap);
+            }
+
+            // Segments are visited in order and their docs renumbered ascending, so every merged
+            // postings list stays sorted by doc id.
+            SortedMap<String, IndexSegment.PostingList> postings = new TreeMap<>();
+            for (int i = 0; i < merging.size(); i++) {
+                IndexSegment segment = merging.get(i);
+                int[] docMap = docMaps.get(i);
+                for (int ordinal = 0; ordinal < segment.getTermCount(); ordinal++) {
+                    IndexSegment.PostingList merged = null;
+                    for (int posting = 0; posting < segment.getDocFrequency(ordinal); posting++) {
+                        int docId = docMap[segment.getPostingDoc(ordinal, posting)];
+                        if (docId < 0) {
+                            continue;
+                        }
+                        if (merged == null) {
+                            merged = postings.computeIfAbsent(segment.getTerm(ordinal),
+                                    key -> new IndexSegment.PostingList());
+                        }
+                        merged.add(docId, segment.getPostingFrequency(ordinal, posting));
+                    }
+                }
+            }
+
+            long generation = nextGeneration.getAndIncrement();
+            IndexSegment segment = IndexSegment.write(segmentPath(generation), generation, docs, postings);
+
+            lock.writeLock().lock();
+            try {
+                segments.removeAll(merging);
+                segments.add(0, segment);
+                for (IndexSegment.Doc doc : docs) {
+                    Long current = latestGeneration.get(doc.threadId);
+                    if (current != null && mergedGenerations.contains(current)) {
+                        latestGeneration.put(doc.threadId, generation);
+                    }
+                }
+                writeManifest();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            for (IndexSegment merged : merging) {
+                deleteQuietly(merged.getPath());
+            }
+        }
+    }
+
+    /** Flushes the buffered questions and stops the background flushes. */
+    public void close() {
+        maintainer.shutdown();
+        try {
+            flush();
+        } catch (IOException e) {
+            System.out.println("Failed to flush search index: " + e.getMessage());
+        }
+    }
+
+    private void maintainQuietly() {
+        try {
+            flush();
+            mergeIfNeeded();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to maintain search index: " + e.getMessage());
+        }
+    }
+
+    // Whether the doc is the latest version of its question, called with the lock held.
+    private boolean isLatest(final IndexSegment segment, final int docId) {
+        Long latest = latestGeneration.get(segment.getThreadId(docId));
+        return latest != null && latest == segment.getGeneration();
+    }
+
+    private int docLength(final long key) {
+        int segmentIndex = (int) (key >>> 32);
+        int docId = (int) key;
+        return segmentIndex == segments.size()
+                ? buffer.get(docId).length
+                : segments.get(segmentIndex).getDocLength(docId);
+    }
+
+    private void setLiveLength(final long threadId, final int length) {
+        Integer previous = liveLengths.put(threadId, length);
+        liveLength += length - (previous == null ? 0 : previous);
+    }
+
+    private double bm25(final double idf, final int frequency, final int length, final double averageLength) {
+        return idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+    }
+
+    private boolean removeIdentical(final PendingDoc doc) {
+        for (int i = 0; i < buffer.size(); i++) {
+            if (buffer.get(i) == doc) {
+                buffer.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void openSegments() throws IOException {
+        Path manifest = directory.resolve(MANIFEST_NAME);
+        Set<String> live = new HashSet<>();
+        if (Files.exists(manifest)) {
+            live.addAll(Files.readAllLines(manifest, StandardCharsets.UTF_8));
+        }
+
+        long maxGeneration = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path file : files) {
+                if (!live.contains(file.getFileName().toString())) {
+                    // Left behind by an interrupted flush or merge.
+                    deleteQuietly(file);
+                    continue;
+                }
+                IndexSegment segment;
+                try {
+                    segment = IndexSegment.open(file);
+                } catch (IOException e) {
+                    // Written by an older format, start over and let the caller rebuild from the database.
+                    System.out.println("Discarding search index: " + e.getMessage());
+                    discardSegments();
+                    return;
+                }
+                segments.add(segment);
+                maxGeneration = Math.max(maxGeneration, segment.getGeneration());
+            }
+        }
+
+        // Replay in generation order so the newest version of every question wins.
+        segments.sort((first, second) -> Long.compare(first.getGeneration(), second.getGeneration()));
+        for (IndexSegment segment : segments) {
+            for (int docId = 0; docId < segment.getDocCount(); docId++) {
+                latestGeneration.put(segment.getThreadId(docId), segment.getGeneration());
+                setLiveLength(segment.getThreadId(docId), segment.getDocLength(docId));
+            }
+        }
+        nextGeneration.set(maxGeneration + 1);
+    }
+
+    private void discardSegments() throws IOException {
+        segments.clear();
+        latestGeneration.clear();
+        liveLengths.clear();
+        liveLength = 0;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path file : files) {
+                deleteQuietly(file);
+            }
+        }
+        deleteQuietly(directory.resolve(MANIFEST_NAME));
+        deleteQuietly(directory.resolve(LOADED_NAME));
+        nextGeneration.set(0);
+    }
+
+    private void writeManifest() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (IndexSegment segment : segments) {
+            names.add(segment.getPath().getFileName().toString());
+        }
+
+        Path manifest = directory.resolve(MANIFEST_NAME);
+        Path temp = directory.resolve(MANIFEST_NAME + ".tmp");
+        Files.write(temp, names, StandardCharsets.UTF_8);
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(final long generation) {
+        return directory.resolve(SEGMENT_PREFIX + generation + SEGMENT_SUFFIX);
+    }
+
+    private static void deleteQuietly(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Failed to delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    public static final class Results {
+
+        private final int totalHits;
+        private final List<Hit> hits;
+
+        private Results(final int totalHits, final List<Hit> hits) {
+            this.totalHits = totalHits;
+            this.hits = hits;
+        }
+
+        public int getTotalHits() {
+            return totalHits;
+        }
+
+        public List<Hit> getHits() {
+            return hits;
+        }
+    }
+
+    public static final class Hit implements Comparable<Hit> {
+
+        private final long threadId;
+        private final String title;
+        private final double score;
+
+        private Hit(final long threadId, final String title, final double score) {
+            this.threadId = threadId;
+            this.title = title;
+            this.score = score;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            return Double.compare(score, other.score);
+        }
+    }
+
+    private static final class PendingDoc {
+
+        private final long threadId;
+        private final String title;
+        private final Map<String, Integer> frequencies = new HashMap<>();
+        private int length;
+
+        private PendingDoc(final Question question) {
+            this.threadId = question.getThreadId();
+            this.title = question.getTitle();
+
+            for (int i = 0; i < TITLE_BOOST; i++) {
+                addTokens(question.getTitle());
+            }
+            addTokens(question.getBody());
+            addTokens(question.getCodeblock());
+            addTokens(question.getOutput());
+        }
+
+        private void addTokens(final String text) {
+            for (String token : Tokenizer.tokenize(text)) {
+                frequencies.merge(token, 1, Integer::sum);
+                length++;
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package panda.reppy.search;
+
+import com.mongodb.client.model.Projections;
+import panda.reppy.database.ModelDao;
+import panda.reppy.database.models.Question;
+import panda.reppy.util.LongHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+public class TitleIndex {
+
+    /**
+     * TitleIndex finds questions with titles similar to a new one. Every title is broken into
+     * character trigrams of its words, and each trigram keeps a postings list of the titles
+     * that contain it.
+     *
+     * A query only walks the postings of its own trigrams. Shared trigrams are weighted by
+     * inverse document frequency, so common fragments such as "the" count for little, and the
+     * sum is normalised by both trigram counts. Scores fall between 0 and 1.
+     *
+     * Trigrams found in more than a tenth of the titles are skipped by queries. They carry
+     * almost no weight but their postings are the longest to walk.
+     *
+     * A title indexed again for the same thread takes over the doc id of the old one, so doc
+     * ids stay dense and a query's score array is sized by the titles actually indexed.
+     */
+
+    private static final int MIN_STOP_FREQUENCY = 100;
+
+    private static final TitleIndex instance = new TitleIndex();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final LongHashMap<Integer> docsByThreadId = new LongHashMap<>();
+    private final List<Doc> docs = new ArrayList<>();
+
+    public static TitleIndex getInstance() {
+        return instance;
+    }
+
+    /** Indexes the title of every saved question. */
+    public void loadQuestions() {
+        long start = System.nanoTime();
+        try (Stream<Question> questions = ModelDao.streamModels(Question.COLLECTION_NAME, Question.class,
+                Projections.include("threadId", "title"))) {
+            questions.forEach(question -> add(question.getThreadId(), question.getTitle()));
+        }
+        System.out.printf("Indexed %d question titles in %d ms.%n", size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /** Adds the title of a question, replacing any title indexed for the same thread. */
+    public void add(final long threadId, final String title) {
+        if (threadId == 0 || title == null) {
+            return;
+        }
+
+        long[] trigrams = trigramsOf(title);
+
+        lock.writeLock().lock();
+        try {
+            Integer previous = docsByThreadId.get(threadId);
+            int docId;
+            if (previous != null) {
+                docId = previous;
+                removePostings(docId);
+                docs.set(docId, new Doc(threadId, title, trigrams.length));
+            } else {
+                docId = docs.size();
+                docs.add(new Doc(threadId, title, trigrams.length));
+                docsByThreadId.put(threadId, docId);
+            }
+
+            for (long trigram : trigrams) {
+                postings.computeIfAbsent(trigram, key -> new Postings()).add(docId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Up to limit questions scoring at least minimumScore, best match first
+     */
+    public List<Match> findSimilar(final String title, final int limit, final double minimumScore) {
+        long[] trigrams = trigramsOf(title);
+        if (trigrams.length == 0) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            float[] scores = new float[docs.size()];
+            int[] touched = new int[16];
+            int touchedCount = 0;
+            double queryWeight = 0;
+            int stopFrequency = Math.max(MIN_STOP_FREQUENCY, docs.size() / 10);
+
+            for (long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                if (list != null && list.size > stopFrequency) {
+                    continue;
+                }
+                if (list == null || list.size == 0) {
+                    // Still part of the query, a trigram no title has makes every match weaker.
+                    queryWeight += idf(0);
+                    continue;
+                }
+
+                float weight = (float) idf(list.size);
+                queryWeight += weight;
+
+                for (int i = 0; i < list.size; i++) {
+                    int docId = list.docIds[i];
+                    if (scores[docId] == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = docId;
+                    }
+                    scores[docId] += weight;
+                }
+            }
+
+            PriorityQueue<Match> best = new PriorityQueue<>(limit + 1);
+            for (int i = 0; i < touchedCount; i++) {
+                Doc doc = docs.get(touched[i]);
+
+                // Average weight per trigram, scaled by how much of each title the overlap covers.
+                double score = scores[touched[i]] / queryWeight
+                        * Math.sqrt((double) trigrams.length / Math.max(doc.trigramCount, trigrams.length));
+                if (score < minimumScore) {
+                    continue;
+                }
+
+                best.add(new Match(doc.threadId, doc.title, score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+
+            List<Match> matches = new ArrayList<>(best);
+            matches.sort(Collections.reverseOrder());
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removePostings(final int docId) {
+        for (long trigram : trigramsOf(docs.get(docId).title)) {
+            Postings list = postings.get(trigram);
+            if (list != null) {
+                list.remove(docId);
+                if (list.size == 0) {
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+    private double idf(final int documentFrequency) {
+        return Math.log(1 + (double) (docs.size() + 1) / (documentFrequency + 1));
+    }
+
+    /**
+     * Distinct trigrams of the lower cased words of the text, with word boundaries marked so
+     * that short words still produce a trigram. Each trigram is packed into a long.
+     */
+    static long[] trigramsOf(final String text) {
+        String normalised = text.toLowerCase();
+        long[] trigrams = new long[normalised.length() + 2];
+        int count = 0;
+
+        int start = -1;
+        for (int i = 0; i <= normalised.length(); i++) {
+            boolean wordChar = i < normalised.length() && Character.isLetterOrDigit(normalised.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                count = addWord(normalised, start, i, trigrams, count);
+                start = -1;
+            }
+        }
+
+        long[] distinct = Arrays.copyOf(trigrams, count);
+        Arrays.sort(distinct);
+
+        int unique = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                distinct[unique++] = distinct[i];
+            }
+        }
+        return Arrays.copyOf(distinct, unique);
+    }
+
+    private static int addWord(final String text, final int start, final int end, long[] trigrams, int count) {
+        // Boundary marker on both sides, so "lua" yields " lu", "lua" and "ua ".
+        for (int i = start - 1; i + 2 <= end; i++) {
+            char first = i < start ? ' ' : text.charAt(i);
+            char second = text.charAt(i + 1);
+            char third = i + 2 < end ? text.charAt(i + 2) : ' ';
+            trigrams[count++] = ((long) first << 32) | ((long) second << 16) | third;
+        }
+        return count;
+    }
+
+    public static final class Match implements Comparable<Match> {
+
+        private final long threadId;
+        private final String title;
+        private final double score;
+
+        private Match(final long threadId, final String title, final double score) {
+            this.threadId = threadId;
+            this.title = title;
+            this.score = score;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            return Double.compare(score, other.score);
+        }
+    }
+
+    private static final class Doc {
+
+        private final long threadId;
+        private final String title;
+        private final int trigramCount;
+
+        private Doc(final long threadId, final String title, final int trigramCount) {
+            this.threadId = threadId;
+            this.title = title;
+            this.trigramCount = trigramCount;
+        }
+    }
+
+    private static final class Postings {
+
+        private int[] docIds = new int[4];
+        private int size;
+
+        private void add(final int docId) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+            }
+            docIds[size++] = docId;
+        }
+
+        private void remove(final int docId) {
+            for (int i = 0; i < size; i++) {
+                if (docIds[i] == docId) {
+                    System.arraycopy(docIds, i + 1, docIds, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package panda.reppy.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class Tokenizer {
+
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MAX_TOKEN_LENGTH = 32;
+
+    private Tokenizer() {}
+
+    /**
+     * Lower cased runs of letters, digits and underscores, so identifiers in code such as
+     * "player_data" stay a single token.
+     */
+    static List<String> tokenize(final String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+
+        String normalised = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= normalised.length(); i++) {
+            boolean tokenChar = i < normalised.length() && isTokenChar(normalised.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_TOKEN_LENGTH && length <= MAX_TOKEN_LENGTH) {
+                    tokens.add(normalised.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isTokenChar(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -9,37 +9,96 @@ import net.dv8tion.jda.api.utils.ChunkingFilter;
 import net.dv8tion.jda.api.utils.MemberCachePolicy;
 import net.dv8tion.jda.api.utils.cache.CacheFlag;
 import panda.reppy.commands.BaseCommand;
+import panda.reppy.commands.CommandDispatcher;
 import panda.reppy.commands.slashcommands.*;
+import panda.reppy.database.Leaderboard;
+import panda.reppy.database.ModelDao;
+import panda.reppy.database.UserStatsDao;
+import panda.reppy.database.VoteWriteBehind;
 import panda.reppy.entities.BotMongoClient;
 import panda.reppy.entities.MessageWaiter;
+import panda.reppy.entities.QuestionSessionStore;
+import panda.reppy.listeners.GatewayRequirements;
 import panda.reppy.listeners.MessageListener;
 import panda.reppy.listeners.SlashCommandListener;
+import panda.reppy.search.SearchIndex;
+import panda.reppy.search.TitleIndex;
 import panda.reppy.util.constants.SnowflakeConstants;
+import panda.reppy.util.metrics.MetricsRegistry;
 
 import javax.security.auth.login.LoginException;
-import java.net.UnknownHostException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static panda.reppy.listeners.SlashCommandListener.getCommandMap;
 
 public class Bot {
 
+    private static final Path METRICS_PATH = Paths.get("metrics.prom");
+
     public Bot(final String token, final String dbURI) throws LoginException, InterruptedException {
         JDABuilder builder = JDABuilder.createDefault(token);
 
-        addListeners(builder);
-        configureMemoryUsage(builder);
+        List<Object> listeners = createListeners();
+        builder.addEventListeners(listeners.toArray());
+        configureMemoryUsage(builder, listeners);
+        // Takes the writes made while the database is unreachable, synced after each heartbeat.
+        try {
+            ModelDao.openLocalStore(Paths.get("model-log.dat"));
+            BotMongoClient.addHeartbeatListener(ModelDao::syncLocalStore);
+            MetricsRegistry.gauge("pending", "local_models", () -> ModelDao.getLocalStore().getPendingCount());
+        } catch (IOException e) {
+            System.out.println("Failed to open the local store: " + e.getMessage());
+        }
+
+        // Warm-ups run on the first successful ping, and on every following one until they succeed.
+        BotMongoClient.addWarmUp("load the leaderboard", Leaderboard.getInstance()::load);
+        MetricsRegistry.gauge("leaderboard", "standings", Leaderboard.getInstance()::size);
+        BotMongoClient.addWarmUp("index question titles", TitleIndex.getInstance()::loadQuestions);
         try {
-            connectDb(dbURI);
-        } catch (UnknownHostException uhe) {
-            // TODO Setup retries
-            System.out.println("Failed to connect to DB.");
+            SearchIndex.open(Paths.get("search-index"));
+            SearchIndex searchIndex = SearchIndex.getInstance();
+            MetricsRegistry.gauge("search", "questions", searchIndex::size);
+            MetricsRegistry.gauge("search", "segments", searchIndex::getSegmentCount);
+            if (!searchIndex.isLoaded()) {
+                BotMongoClient.addWarmUp("index questions for search", () -> {
+                    try {
+                        searchIndex.loadQuestions();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to open search index: " + e.getMessage());
         }
 
+        // Retries on its own heartbeat while the database is unreachable.
+        connectDb(dbURI);
+
+        try {
+            VoteWriteBehind.start(Paths.get("vote-journal.dat"));
+            MetricsRegistry.gauge("pending", "votes", () -> VoteWriteBehind.getInstance().getPendingCount());
+        } catch (IOException e) {
+            System.out.println("Failed to open vote journal: " + e.getMessage());
+        }
+
+        initMetrics();
+
         JDA jda = builder.build();
         jda.awaitReady();
 
+        MetricsRegistry.gauge("jda", "cached_users", () -> jda.getUserCache().size());
+        MetricsRegistry.gauge("jda", "cached_members", () ->
+                jda.getGuildCache().stream().mapToLong(cached -> cached.getMemberCache().size()).sum());
+
         Map<String, BaseCommand> loadedCommands = getCommandMap();
 
         Guild guild = jda.getGuildById(SnowflakeConstants.HOME_GUILD_ID);
@@ -48,27 +107,82 @@ public class Bot {
         }
     }
 
-    private static void addListeners(JDABuilder builder) {
-        SlashCommandListener slashCommandListener = new SlashCommandListener();
+    /**
+     * Stops the bot safely: flushes pending votes and the search index, drains the database
+     * executor, closes the local store and the database client, then shuts JDA down. Every
+     * stop command goes through here.
+     */
+    public static void shutdown(final JDA jda) {
+        if (VoteWriteBehind.getInstance() != null) {
+            VoteWriteBehind.getInstance().close();
+        }
+        if (SearchIndex.getInstance() != null) {
+            SearchIndex.getInstance().close();
+        }
+        ModelDao.shutdown();
+        ModelDao.closeLocalStore();
+        BotMongoClient.close();
+        jda.shutdown();
+    }
+
+    private static List<Object> createListeners() {
+        CommandDispatcher dispatcher = CommandDispatcher.boundedPool(8, 64);
+        SlashCommandListener slashCommandListener = new SlashCommandListener(dispatcher);
         initSlashCommands(slashCommandListener);
 
-        builder.addEventListeners(new MessageListener(), slashCommandListener, new MessageWaiter());
+        MessageWaiter waiter = new MessageWaiter();
+        MetricsRegistry.gauge("pending", "commands", dispatcher::getPendingCount);
+        MetricsRegistry.gauge("waiter", "waiting", waiter::getWaitingCount);
+        MetricsRegistry.gauge("waiter", "timeouts", waiter::getPendingTimeouts);
+
+        return Arrays.asList(new MessageListener(), slashCommandListener, waiter);
+    }
+
+    private static void initMetrics() {
+        MetricsRegistry.gauge("db", "connected", () -> BotMongoClient.isConnected() ? 1 : 0);
+        ModelDao.setMetrics((operation, collectionName, durationNanos) ->
+                MetricsRegistry.histogram("db", operation + ":" + collectionName).record(durationNanos));
+
+        MetricsRegistry.gauge("cache", "stats_size", () -> UserStatsDao.getStatsCache().size());
+        MetricsRegistry.gauge("cache", "stats_hits", () -> UserStatsDao.getStatsCache().getHits());
+        MetricsRegistry.gauge("cache", "stats_misses", () -> UserStatsDao.getStatsCache().getMisses());
+        MetricsRegistry.gauge("cache", "stats_evictions", () -> UserStatsDao.getStatsCache().getEvictions());
+
+        MetricsRegistry.startFileDump(METRICS_PATH, 1, TimeUnit.MINUTES);
     }
 
-    private static void configureMemoryUsage(JDABuilder builder) {
+    /**
+     * Enables only the intents, cache flags and member caching the listeners declare through
+     * GatewayRequirements, everything else stays off.
+     */
+    private static void configureMemoryUsage(JDABuilder builder, List<Object> listeners) {
+        EnumSet<GatewayIntent> intents = EnumSet.noneOf(GatewayIntent.class);
+        EnumSet<CacheFlag> cacheFlags = EnumSet.noneOf(CacheFlag.class);
+        MemberCachePolicy memberCachePolicy = MemberCachePolicy.NONE;
+        for (Object listener : listeners) {
+            if (listener instanceof GatewayRequirements) {
+                GatewayRequirements requirements = (GatewayRequirements) listener;
+                intents.addAll(requirements.getRequiredIntents());
+                cacheFlags.addAll(requirements.getRequiredCacheFlags());
+                memberCachePolicy = memberCachePolicy.or(requirements.getMemberCachePolicy());
+            }
+        }
+        System.out.printf("Gateway intents: %s, cache flags: %s%n", intents, cacheFlags);
+
         builder
                 // Enable the bulk delete event.
                 .setBulkDeleteSplittingEnabled(false)
-                // Disable All CacheFlags.
+                // Disable All CacheFlags, then enable the ones listeners read.
                 .disableCache(Arrays.asList(CacheFlag.values()))
-                // Only cache members who are online or owner of the guild.
-                .setMemberCachePolicy(MemberCachePolicy.ONLINE.or(MemberCachePolicy.OWNER))
+                .enableCache(cacheFlags)
+                // Only cache members listeners expect to find.
+                .setMemberCachePolicy(memberCachePolicy)
                 // Disable member chunking on startup.
                 .setChunkingFilter(ChunkingFilter.NONE)
                 // Disable All intents
                 .disableIntents(Arrays.asList(GatewayIntent.values()))
-                // Enable specific intents.
-                .enableIntents(GatewayIntent.DIRECT_MESSAGES, GatewayIntent.GUILD_MESSAGES, GatewayIntent.GUILD_MEMBERS)
+                // Enable the intents listeners need.
+                .enableIntents(intents)
                 // Consider guilds with more than 50 members as "large".
                 // Large guilds will only provide online members in the setup and thus reduce
                 // bandwidth if chunking is disabled.
@@ -77,17 +191,21 @@ public class Bot {
                 .setActivity(Activity.playing("v0.2.1_beta"));
     }
 
-    private static void connectDb(final String dbURI) throws UnknownHostException {
+    private static void connectDb(final String dbURI) {
         new BotMongoClient(dbURI);
     }
 
     private static void initSlashCommands(SlashCommandListener listener) {
         // Member Specific Commands
-        listener.initCommands(new Ping(), new PostQuestion(), new StatsCommand());
+        QuestionSessionStore sessionStore = new QuestionSessionStore(Paths.get("question-sessions.dat"));
+        MetricsRegistry.gauge("sessions", "count", sessionStore::getSessionCount);
+        MetricsRegistry.gauge("sessions", "footprint_bytes", sessionStore::estimateFootprintBytes);
+        listener.initCommands(new Ping(), new PostQuestion(sessionStore), new StatsCommand(),
+                new SearchCommand(), new LeaderboardCommand());
 
         // Admin Specific Commands
 
         // Owner Specific Commands
-        listener.initCommands(new Stop());
+        listener.initCommands(new Stop(), new RebuildStats(), new DbExplain(), new MetricsCommand(METRICS_PATH));
     }
 }
@@ -0,0 +1,172 @@
+package panda.reppy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LongHashMap<V> {
+
+    /**
+     * LongHashMap maps primitive longs to values using open addressing with linear probing, so
+     * snowflake keys are neither boxed nor hashed through Long. Removal shifts the following
+     * entries back instead of leaving tombstones.
+     *
+     * Not thread safe, callers guard it themselves.
+     */
+
+    private static final long EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int shift;
+    private int size;
+    // 0 marks an empty slot, so its value is kept on the side.
+    private boolean hasEmptyKey;
+    private V emptyKeyValue;
+
+    public LongHashMap() {
+        this(8);
+    }
+
+    public LongHashMap(final int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        if (key == EMPTY) {
+            return emptyKeyValue;
+        }
+
+        int mask = keys.length - 1;
+        for (int slot = indexOf(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+            if (keys[slot] == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(final long key) {
+        return key == EMPTY ? hasEmptyKey : get(key) != null;
+    }
+
+    /**
+     * @return The previous value of the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final long key, final V value) {
+        if (key == EMPTY) {
+            V previous = emptyKeyValue;
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+            return previous;
+        }
+
+        int mask = keys.length - 1;
+        for (int slot = indexOf(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size > keys.length * LOAD_FACTOR) {
+                    grow();
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return The removed value, or null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long key) {
+        if (key == EMPTY) {
+            V previous = emptyKeyValue;
+            hasEmptyKey = false;
+            emptyKeyValue = null;
+            return previous;
+        }
+
+        int mask = keys.length - 1;
+        int slot = indexOf(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY) {
+                return null;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        V previous = (V) values[slot];
+        size--;
+
+        // Move later entries of the probe run into the gap when their home slot allows it.
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = indexOf(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+
+        return previous;
+    }
+
+    public int size() {
+        return size + (hasEmptyKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Copy of the values, in no particular order. */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> copy = new ArrayList<>(size());
+        if (hasEmptyKey) {
+            copy.add(emptyKeyValue);
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                copy.add((V) values[slot]);
+            }
+        }
+        return copy;
+    }
+
+    private int indexOf(final long key) {
+        // Fibonacci hashing, see LongHashSet.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        long[] previousKeys = keys;
+        Object[] previousValues = values;
+        keys = new long[previousKeys.length * 2];
+        values = new Object[previousValues.length * 2];
+        shift--;
+        size = 0;
+
+        for (int slot = 0; slot < previousKeys.length; slot++) {
+            if (previousKeys[slot] != EMPTY) {
+                put(previousKeys[slot], (V) previousValues[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package panda.reppy.util;
+
+public class LongHashSet {
+
+    /**
+     * LongHashSet is a set of primitive longs using open addressing with linear probing, so
+     * lookups neither box nor allocate. It is meant for small, mostly read sets such as the
+     * snowflakes of command conditions.
+     */
+
+    private static final long EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] slots;
+    private int shift;
+    private int size;
+    // 0 marks an empty slot, so it is tracked on its own.
+    private boolean containsEmpty;
+
+    public LongHashSet() {
+        this(8);
+    }
+
+    public LongHashSet(final int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.slots = new long[capacity];
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * @return True if the value was not in the set yet
+     */
+    public boolean add(final long value) {
+        if (value == EMPTY) {
+            boolean added = !containsEmpty;
+            containsEmpty = true;
+            return added;
+        }
+
+        int mask = slots.length - 1;
+        for (int slot = indexOf(value); ; slot = (slot + 1) & mask) {
+            if (slots[slot] == value) {
+                return false;
+            }
+            if (slots[slot] == EMPTY) {
+                slots[slot] = value;
+                if (++size > slots.length * LOAD_FACTOR) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    public boolean contains(final long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+
+        int mask = slots.length - 1;
+        for (int slot = indexOf(value); ; slot = (slot + 1) & mask) {
+            if (slots[slot] == value) {
+                return true;
+            }
+            if (slots[slot] == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    public int size() {
+        return size + (containsEmpty ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private int indexOf(final long value) {
+        // Fibonacci hashing, snowflakes share their high timestamp bits so the raw value hashes badly.
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void grow() {
+        long[] previous = slots;
+        slots = new long[previous.length * 2];
+        shift--;
+        size = 0;
+
+        for (long value : previous) {
+            if (value != EMPTY) {
+                add(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package panda.reppy.util;
+
+import net.dv8tion.jda.api.entities.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class MessageComposer {
+
+    /**
+     * MessageComposer packs several pieces of text into as few messages as Discord's content
+     * limit allows. Pieces are joined by a newline and kept in order. A piece too long for one
+     * message is split at its last newline before the limit, and a split code block is closed
+     * and reopened with the same fence so every message renders on its own.
+     */
+
+    private static final String FENCE = "```";
+    private static final String SEPARATOR = "\n";
+
+    private MessageComposer() {}
+
+    /** Composes the pieces into messages of at most {@link Message#MAX_CONTENT_LENGTH} characters. */
+    public static List<String> compose(final String... pieces) {
+        return compose(Message.MAX_CONTENT_LENGTH, pieces);
+    }
+
+    /**
+     * Composes the pieces into messages of at most maxLength characters.
+     *
+     * @param maxLength Maximum length of a composed message
+     * @param pieces Text to compose, null and empty pieces are skipped
+     * @return The messages, in order
+     */
+    public static List<String> compose(final int maxLength, final String... pieces) {
+        List<String> messages = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+
+        for (String piece : pieces) {
+            if (piece == null || piece.isEmpty()) {
+                continue;
+            }
+
+            for (String chunk : split(piece, maxLength)) {
+                if (current.length() > 0 && current.length() + SEPARATOR.length() + chunk.length() > maxLength) {
+                    messages.add(current.toString());
+                    current.setLength(0);
+                }
+                if (current.length() > 0) {
+                    current.append(SEPARATOR);
+                }
+                current.append(chunk);
+            }
+        }
+
+        if (current.length() > 0) {
+            messages.add(current.toString());
+        }
+        return messages;
+    }
+
+    private static List<String> split(final String piece, final int maxLength) {
+        List<String> chunks = new ArrayList<>();
+        if (piece.length() <= maxLength) {
+            chunks.add(piece);
+            return chunks;
+        }
+
+        int openEnd = piece.indexOf('\n') + 1;
+        boolean codeBlock = piece.startsWith(FENCE) && piece.endsWith(FENCE) && openEnd > 0
+                && openEnd <= piece.length() - FENCE.length();
+        if (!codeBlock) {
+            splitLines(piece, maxLength, chunks);
+            return chunks;
+        }
+
+        String open = piece.substring(0, openEnd);
+        String close = "\n" + FENCE;
+        String inner = piece.substring(openEnd, piece.length() - FENCE.length());
+        if (inner.endsWith("\n")) {
+            inner = inner.substring(0, inner.length() - 1);
+        }
+
+        List<String> lines = new ArrayList<>();
+        splitLines(inner, maxLength - open.length() - close.length(), lines);
+        for (String line : lines) {
+            chunks.add(open + line + close);
+        }
+        return chunks;
+    }
+
+    private static void splitLines(final String text, final int maxLength, final List<String> chunks) {
+        int start = 0;
+        while (text.length() - start > maxLength) {
+            int end = text.lastIndexOf('\n', start + maxLength);
+            if (end <= start) {
+                // No line break to split at, cut at the limit.
+                chunks.add(text.substring(start, start + maxLength));
+                start += maxLength;
+            } else {
+                chunks.add(text.substring(start, end));
+                start = end + 1;
+            }
+        }
+        chunks.add(text.substring(start));
+    }
+}
@@ -6,6 +6,6 @@ import panda.reppy.flags.SnowflakeType;
 public class CommandConditionConstants {
 
     public static final CommandCondition OWNER_CONDITION =
-            new CommandCondition("169208961533345792", SnowflakeType.MEMBER_ID);
+            new CommandCondition(SnowflakeConstants.BOT_OWNER_ID, SnowflakeType.MEMBER_ID);
 
 }
@@ -2,9 +2,9 @@ package panda.reppy.util.constants;
 
 public class SnowflakeConstants {
 
-    public static final String BOT_OWNER_ID = "169208961533345792";
-    public static final String HOME_GUILD_ID = "165202235226062848";
-    public static final String THREAD_CHANNEL_ID = "933225805541167135";
-    public static final String ASK_QUESTION_CHANNEL_ID = "933232354892316692";
+    public static final long BOT_OWNER_ID = 169208961533345792L;
+    public static final long HOME_GUILD_ID = 165202235226062848L;
+    public static final long THREAD_CHANNEL_ID = 933225805541167135L;
+    public static final long ASK_QUESTION_CHANNEL_ID = 933232354892316692L;
 
 }
@@ -0,0 +1,186 @@
+package panda.reppy.util.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public final class MetricsRegistry {
+
+    /**
+     * MetricsRegistry holds the latency histograms, counters and gauges of the bot. Metrics are
+     * named by a family and a name within it, e.g. ("command", "stats") or ("db", "find:questions"),
+     * and are created on first use.
+     *
+     * Everything can be rendered as a plain text summary for /metrics, or in the Prometheus text
+     * format to a file that a node exporter textfile collector or a person can read.
+     */
+
+    private static final String PREFIX = "reppy_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final Map<MetricName, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<MetricName, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<MetricName, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private static ScheduledExecutorService dumper;
+
+    private MetricsRegistry() {}
+
+    public static LatencyHistogram histogram(final String family, final String name) {
+        return histograms.computeIfAbsent(new MetricName(family, name), key -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(final String family, final String name) {
+        return counters.computeIfAbsent(new MetricName(family, name), key -> new LongAdder());
+    }
+
+    /** Registers a value that is read each time the metrics are rendered. */
+    public static void gauge(final String family, final String name, final LongSupplier value) {
+        gauges.put(new MetricName(family, name), value);
+    }
+
+    public static String formatSummary() {
+        StringBuilder summary = new StringBuilder();
+
+        histograms.forEach((name, histogram) ->
+                summary.append(String.format("%-32s %s%n", name, histogram.format())));
+        counters.forEach((name, counter) ->
+                summary.append(String.format("%-32s %d%n", name, counter.sum())));
+        gauges.forEach((name, gauge) ->
+                summary.append(String.format("%-32s %d%n", name, readGauge(gauge))));
+
+        return summary.toString();
+    }
+
+    public static String formatPrometheus() {
+        StringBuilder text = new StringBuilder();
+
+        String family = null;
+        for (Map.Entry<MetricName, LatencyHistogram> entry : histograms.entrySet()) {
+            MetricName name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            String metric = PREFIX + name.family + "_latency_seconds";
+
+            if (!name.family.equals(family)) {
+                family = name.family;
+                text.append("# TYPE ").append(metric).append(" summary\n");
+            }
+            for (double quantile : QUANTILES) {
+                text.append(metric).append("{name=\"").append(escape(name.name))
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(histogram.getValueAtQuantile(quantile))).append('\n');
+            }
+            text.append(metric).append("_sum").append(label(name)).append(' ')
+                    .append(seconds(histogram.getSum())).append('\n');
+            text.append(metric).append("_count").append(label(name)).append(' ')
+                    .append(histogram.getCount()).append('\n');
+        }
+
+        family = null;
+        for (Map.Entry<MetricName, LongAdder> entry : counters.entrySet()) {
+            MetricName name = entry.getKey();
+            String metric = PREFIX + name.family + "_total";
+
+            if (!name.family.equals(family)) {
+                family = name.family;
+                text.append("# TYPE ").append(metric).append(" counter\n");
+            }
+            text.append(metric).append(label(name)).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+
+        family = null;
+        for (Map.Entry<MetricName, LongSupplier> entry : gauges.entrySet()) {
+            MetricName name = entry.getKey();
+            String metric = PREFIX + name.family;
+
+            if (!name.family.equals(family)) {
+                family = name.family;
+                text.append("# TYPE ").append(metric).append(" gauge\n");
+            }
+            text.append(metric).append(label(name)).append(' ').append(readGauge(entry.getValue())).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    /** Writes the Prometheus text to the file, replacing it atomically. */
+    public static void writePrometheus(final Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(formatPrometheus());
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Rewrites the Prometheus file on a fixed period. */
+    public static synchronized void startFileDump(final Path path, final long period, final TimeUnit unit) {
+        if (dumper != null) {
+            return;
+        }
+
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MetricsDump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                writePrometheus(path);
+            } catch (IOException e) {
+                System.out.println("Failed to write metrics: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    private static long readGauge(final LongSupplier gauge) {
+        try {
+            return gauge.getAsLong();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String label(final MetricName name) {
+        return "{name=\"" + escape(name.name) + "\"}";
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(final long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static final class MetricName implements Comparable<MetricName> {
+
+        private final String family;
+        private final String name;
+
+        private MetricName(final String family, final String name) {
+            this.family = family;
+            this.name = name;
+        }
+
+        @Override
+        public int compareTo(MetricName other) {
+            int compared = family.compareTo(other.family);
+            return compared != 0 ? compared : name.compareTo(other.name);
+        }
+
+        @Override
+        public String toString() {
+            return family + " " + name;
+        }
+    }
+}
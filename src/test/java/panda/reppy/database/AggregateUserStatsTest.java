@@ -0,0 +1,152 @@
+package panda.reppy.database;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import panda.reppy.database.models.Answer;
+import panda.reppy.database.models.Question;
+import panda.reppy.database.models.UserStats;
+import panda.reppy.database.models.Vote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AggregateUserStatsTest {
+
+    private static final long HEAVY_USER = 300_000_000_000_000_001L;
+    private static final long ANSWERER = 300_000_000_000_000_002L;
+    private static final long VOTER = 300_000_000_000_000_003L;
+    private static final long NEWCOMER = 300_000_000_000_000_004L;
+
+    private static InMemoryMongo mongo;
+
+    @BeforeAll
+    static void seed() {
+        mongo = InMemoryMongo.start();
+
+        List<Question> questions = new ArrayList<>();
+        List<Answer> answers = new ArrayList<>();
+        List<Vote> votes = new ArrayList<>();
+        long postId = 1;
+
+        for (int i = 0; i < 25; i++) {
+            questions.add(question(HEAVY_USER, postId++));
+        }
+        questions.add(question(VOTER, postId++));
+
+        for (int i = 0; i < 40; i++) {
+            answers.add(answer(HEAVY_USER, postId++, i % 3 == 0));
+        }
+        for (int i = 0; i < 7; i++) {
+            answers.add(answer(ANSWERER, postId++, i == 0));
+        }
+
+        for (int i = 0; i < 30; i++) {
+            votes.add(vote(VOTER, HEAVY_USER, postId++, i % 4 != 0));
+        }
+        for (int i = 0; i < 9; i++) {
+            votes.add(vote(HEAVY_USER, ANSWERER, postId++, i % 2 == 0));
+        }
+        votes.add(vote(ANSWERER, VOTER, postId, false));
+
+        mongo.insert(Question.COLLECTION_NAME, Question.class, questions);
+        mongo.insert(Answer.COLLECTION_NAME, Answer.class, answers);
+        mongo.insert(Vote.COLLECTION_NAME, Vote.class, votes);
+    }
+
+    @AfterAll
+    static void stop() {
+        mongo.close();
+    }
+
+    @Test
+    void matchesFetchingEveryModelForAHeavyUser() {
+        assertMatchesFetchedCounts(HEAVY_USER);
+
+        UserStats stats = ModelDao.aggregateUserStats(HEAVY_USER);
+        assertEquals(25, stats.getQuestions());
+        assertEquals(40, stats.getAnswers());
+        assertEquals(14, stats.getAcceptedAnswers());
+        assertEquals(22, stats.getUpvotesReceived());
+        assertEquals(8, stats.getDownvotesReceived());
+        assertEquals(5, stats.getUpvotesGiven());
+        assertEquals(4, stats.getDownvotesGiven());
+    }
+
+    @Test
+    void countsAnswersAndVotesOfAUserWithoutQuestions() {
+        assertMatchesFetchedCounts(ANSWERER);
+
+        UserStats stats = ModelDao.aggregateUserStats(ANSWERER);
+        assertEquals(0, stats.getQuestions());
+        assertEquals(7, stats.getAnswers());
+        assertEquals(1, stats.getAcceptedAnswers());
+        assertEquals(1, stats.getDownvotesGiven());
+    }
+
+    @Test
+    void countsVotesGivenAndReceived() {
+        assertMatchesFetchedCounts(VOTER);
+    }
+
+    @Test
+    void returnsZeroesForAUserWithoutModels() {
+        assertMatchesFetchedCounts(NEWCOMER);
+        assertEquals(0, ModelDao.aggregateUserStats(NEWCOMER).getReputation());
+    }
+
+    /** Compares the aggregation with the four fetches /stats used to make before it. */
+    private static void assertMatchesFetchedCounts(final long userId) {
+        List<Question> questions = ModelDao.retrieveModelsByField("questions", Question.class, "authorId", userId);
+        List<Answer> answers = ModelDao.retrieveModelsByField("answers", Answer.class, "authorId", userId);
+        List<Vote> received = ModelDao.retrieveModelsByField("votes", Vote.class, "receiverId", userId);
+        List<Vote> given = ModelDao.retrieveModelsByField("votes", Vote.class, "authorId", userId);
+
+        UserStats expected = new UserStats(userId);
+        expected.setQuestions(questions.size());
+        expected.setAnswers(answers.size());
+        expected.setAcceptedAnswers(answers.stream().filter(Answer::isAccepted).count());
+        expected.setUpvotesReceived(received.stream().filter(Vote::isUpvote).count());
+        expected.setDownvotesReceived(received.stream().filter(vote -> !vote.isUpvote()).count());
+        expected.setUpvotesGiven(given.stream().filter(Vote::isUpvote).count());
+        expected.setDownvotesGiven(given.stream().filter(vote -> !vote.isUpvote()).count());
+
+        UserStats actual = ModelDao.aggregateUserStats(userId);
+        assertEquals(expected.getQuestions(), actual.getQuestions(), "questions");
+        assertEquals(expected.getAnswers(), actual.getAnswers(), "answers");
+        assertEquals(expected.getAcceptedAnswers(), actual.getAcceptedAnswers(), "accepted answers");
+        assertEquals(expected.getUpvotesReceived(), actual.getUpvotesReceived(), "upvotes received");
+        assertEquals(expected.getDownvotesReceived(), actual.getDownvotesReceived(), "downvotes received");
+        assertEquals(expected.getUpvotesGiven(), actual.getUpvotesGiven(), "upvotes given");
+        assertEquals(expected.getDownvotesGiven(), actual.getDownvotesGiven(), "downvotes given");
+        assertEquals(expected.calculateReputation(), actual.getReputation(), "reputation");
+    }
+
+    private static Question question(final long authorId, final long threadId) {
+        Question question = new Question();
+        question.setAuthorId(authorId);
+        question.setThreadId(threadId);
+        question.setTitle("Question " + threadId);
+        return question;
+    }
+
+    private static Answer answer(final long authorId, final long threadId, final boolean accepted) {
+        Answer answer = new Answer();
+        answer.setAuthorId(authorId);
+        answer.setThreadId(threadId);
+        answer.setAccepted(accepted);
+        return answer;
+    }
+
+    private static Vote vote(final long authorId, final long receiverId, final long postId, final boolean upvote) {
+        Vote vote = new Vote();
+        vote.setAuthorId(authorId);
+        vote.setReceiverId(receiverId);
+        vote.setPostId(postId);
+        vote.setThreadId(postId);
+        vote.setUpvote(upvote);
+        return vote;
+    }
+}
@@ -0,0 +1,161 @@
+package panda.reppy.database;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import panda.reppy.database.models.Answer;
+import panda.reppy.database.models.Question;
+import panda.reppy.database.models.Vote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Saves the same models from several threads at once and checks user_stats counts every model
+ * once, whichever save inserted it.
+ */
+class ConcurrentSaveStatsTest {
+
+    private static final int SAVERS = 8;
+    private static final int MODELS = 50;
+
+    private static InMemoryMongo mongo;
+
+    @BeforeAll
+    static void start() {
+        mongo = InMemoryMongo.start();
+    }
+
+    @AfterAll
+    static void stop() {
+        mongo.close();
+    }
+
+    @Test
+    void newQuestionsSavedConcurrentlyAreCountedOnce() throws Exception {
+        long authorId = 400_000_000_000_000_001L;
+        List<ObjectId> ids = newIds();
+
+        saveConcurrently(saver -> {
+            List<Question> questions = new ArrayList<>();
+            for (int i = 0; i < MODELS; i++) {
+                Question question = new Question();
+                question.setId(ids.get(i));
+                question.setAuthorId(authorId);
+                question.setThreadId(i + 1);
+                question.setTitle("Question " + i + " from saver " + saver);
+                questions.add(question);
+            }
+            return () -> ModelDao.saveAll(questions);
+        });
+
+        assertEquals(MODELS, mongo.database().getCollection("questions").countDocuments(eq("authorId", authorId)));
+        assertEquals(MODELS, stats(authorId).getLong("questions"));
+    }
+
+    @Test
+    void acceptingAnAnswerConcurrentlyIsCountedOnce() throws Exception {
+        long authorId = 400_000_000_000_000_002L;
+        List<ObjectId> ids = newIds();
+        ModelDao.saveAll(answers(ids, authorId, false));
+
+        saveConcurrently(saver -> {
+            List<Answer> accepted = answers(ids, authorId, true);
+            return () -> ModelDao.saveAll(accepted);
+        });
+
+        Document stats = stats(authorId);
+        assertEquals(MODELS, stats.getLong("answers"));
+        assertEquals(MODELS, stats.getLong("acceptedAnswers"));
+        assertEquals(MODELS * 15L, stats.getLong("reputation"));
+    }
+
+    @Test
+    void votesOfAnAuthorOnAPostReplaceEachOther() throws Exception {
+        long voterId = 400_000_000_000_000_003L;
+        long receiverId = 400_000_000_000_000_004L;
+
+        saveConcurrently(saver -> {
+            List<Vote> votes = new ArrayList<>();
+            for (int post = 1; post <= MODELS; post++) {
+                // Every saver sends each vote twice, the later one of a batch wins.
+                votes.add(vote(voterId, receiverId, post, false));
+                votes.add(vote(voterId, receiverId, post, true));
+            }
+            return () -> ModelDao.saveVotes(votes);
+        });
+
+        assertEquals(MODELS, mongo.database().getCollection("votes").countDocuments(eq("authorId", voterId)));
+        assertEquals(MODELS, stats(voterId).getLong("upvotesGiven"));
+        Document received = stats(receiverId);
+        assertEquals(MODELS, received.getLong("upvotesReceived"));
+        assertEquals(0L, received.get("downvotesReceived", 0L));
+        assertEquals(MODELS * 10L, received.getLong("reputation"));
+    }
+
+    /** Runs one save per saver, released together so their writes interleave. */
+    private static void saveConcurrently(final IntFunction<Runnable> saves) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(SAVERS);
+        ExecutorService pool = Executors.newFixedThreadPool(SAVERS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int saver = 0; saver < SAVERS; saver++) {
+            Runnable save = saves.apply(saver);
+            futures.add(pool.submit(() -> {
+                start.await();
+                save.run();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+    }
+
+    private static Document stats(final long userId) {
+        Document stats = mongo.database().getCollection(UserStatsDao.COLLECTION_NAME).find(eq("_id", userId)).first();
+        return stats != null ? stats : new Document();
+    }
+
+    private static List<ObjectId> newIds() {
+        List<ObjectId> ids = new ArrayList<>();
+        for (int i = 0; i < MODELS; i++) {
+            ids.add(new ObjectId());
+        }
+        return ids;
+    }
+
+    private static List<Answer> answers(final List<ObjectId> ids, final long authorId, final boolean accepted) {
+        List<Answer> answers = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Answer answer = new Answer();
+            answer.setId(ids.get(i));
+            answer.setAuthorId(authorId);
+            answer.setThreadId(i + 1);
+            answer.setAccepted(accepted);
+            answers.add(answer);
+        }
+        return answers;
+    }
+
+    private static Vote vote(final long authorId, final long receiverId, final long postId, final boolean upvote) {
+        Vote vote = new Vote();
+        vote.setAuthorId(authorId);
+        vote.setReceiverId(receiverId);
+        vote.setPostId(postId);
+        vote.setThreadId(postId);
+        vote.setUpvote(upvote);
+        return vote;
+    }
+}
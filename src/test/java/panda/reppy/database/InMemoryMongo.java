@@ -0,0 +1,77 @@
+package panda.reppy.database;
+
+import com.mongodb.client.MongoDatabase;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.entities.BotMongoClient;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an in-memory MongoDB stand-in and connects BotMongoClient to it. The stand-in speaks the
+ * wire protocol but ignores secondary indexes and lacks some stages, such as $unionWith.
+ */
+final class InMemoryMongo implements AutoCloseable {
+
+    private final MongoServer server;
+    private final String uri;
+
+    private InMemoryMongo(final MongoServer server, final String uri) {
+        this.server = server;
+        this.uri = uri;
+    }
+
+    static InMemoryMongo start() {
+        // Tests drive the connection state themselves, and a stopped server fails fast.
+        System.setProperty("reppy.mongo.heartbeatSeconds", "3600");
+        System.setProperty("reppy.mongo.serverSelectionTimeoutMillis", "500");
+
+        MongoServer server = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = server.bind();
+        String uri = "mongodb://" + address.getHostString() + ":" + address.getPort();
+        new BotMongoClient(uri);
+        awaitWarmUp();
+        return new InMemoryMongo(server, uri);
+    }
+
+    // Lets indexes and migrations finish before the test writes, as they run on their own thread.
+    private static void awaitWarmUp() {
+        try {
+            if (!BotMongoClient.awaitWarmUp(30, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Database warm-up did not finish.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** For tests that need a client of their own, with listeners or other settings. */
+    String uri() {
+        return uri;
+    }
+
+    MongoDatabase database() {
+        return BotMongoClient.getDatabase("reppy");
+    }
+
+    /** Inserts the models directly, without touching user_stats or the caches. */
+    <T extends DatabaseModel> void insert(final String collectionName, final Class<T> modelType,
+                                          final List<T> models) {
+        BotMongoClient.getCollectionByName(database(), collectionName, modelType).insertMany(models);
+    }
+
+    /** Stops the server but leaves BotMongoClient believing it is connected, as at the start of an outage. */
+    void stopServer() {
+        server.shutdownNow();
+    }
+
+    @Override
+    public void close() {
+        BotMongoClient.close();
+        server.shutdownNow();
+    }
+}
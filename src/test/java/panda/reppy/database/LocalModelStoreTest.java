@@ -0,0 +1,103 @@
+package panda.reppy.database;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import panda.reppy.database.models.DatabaseModel;
+import panda.reppy.database.models.Question;
+import panda.reppy.database.models.Vote;
+import panda.reppy.entities.BotMongoClient;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalModelStoreTest {
+
+    private static final long AUTHOR = 600_000_000_000_000_001L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsASaveMongoFailsWhileStillConnected() throws IOException {
+        Path log = directory.resolve("model-log.dat");
+        try (InMemoryMongo mongo = InMemoryMongo.start()) {
+            ModelDao.openLocalStore(log);
+            try {
+                mongo.stopServer();
+                assertTrue(BotMongoClient.isConnected());
+
+                ModelDao.saveModelData(question(1, "Saved as the database went down"));
+
+                List<Question> found = ModelDao.getLocalStore().findByField(Question.COLLECTION_NAME,
+                        Question.class, "threadId", 1L);
+                assertEquals(1, found.size());
+                assertEquals("Saved as the database went down", found.get(0).getTitle());
+            } finally {
+                ModelDao.closeLocalStore();
+            }
+        }
+
+        assertEquals(1, new LocalModelStore(log).getPendingCount());
+    }
+
+    @Test
+    void keepsAppendingAfterASyncCompactsTheLog() throws IOException {
+        Path log = directory.resolve("model-log.dat");
+        LocalModelStore store = new LocalModelStore(log);
+        store.save(question(1, "Synced"));
+
+        List<DatabaseModel> synced = new ArrayList<>();
+        assertEquals(1, store.syncTo(recording(synced)));
+        assertEquals(1, synced.size());
+
+        store.save(question(2, "Written after the sync"));
+        store.close();
+
+        LocalModelStore reopened = new LocalModelStore(log);
+        assertEquals(1, reopened.getPendingCount());
+        assertEquals(1, reopened.findByField(Question.COLLECTION_NAME, Question.class, "threadId", 2L).size());
+        reopened.close();
+    }
+
+    private static Question question(final long threadId, final String title) {
+        Question question = new Question();
+        question.setId(new ObjectId());
+        question.setAuthorId(AUTHOR);
+        question.setThreadId(threadId);
+        question.setTitle(title);
+        return question;
+    }
+
+    private static ModelStore recording(final List<DatabaseModel> saved) {
+        return new ModelStore() {
+            @Override
+            public <T extends DatabaseModel> List<T> findByField(final String collectionName, final Class<T> modelType,
+                                                                 final String fieldName, final Object fieldValue) {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void save(final DatabaseModel model) {
+                saved.add(model);
+            }
+
+            @Override
+            public void saveAll(final Collection<? extends DatabaseModel> models) {
+                saved.addAll(models);
+            }
+
+            @Override
+            public void saveVotes(final Collection<Vote> votes) {
+                saved.addAll(votes);
+            }
+        };
+    }
+}
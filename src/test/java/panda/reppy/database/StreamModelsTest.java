@@ -0,0 +1,167 @@
+package panda.reppy.database;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Projections;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.CommandFailedEvent;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import panda.reppy.database.codecs.ModelCodecProvider;
+import panda.reppy.database.models.Question;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamModelsTest {
+
+    private static final int FIXTURE_SIZE = 1_000_000;
+    private static final int BATCH_SIZE = 1000;
+
+    private static InMemoryMongo mongo;
+
+    private final AtomicLong documentsReceived = new AtomicLong();
+    private final List<String> commands = new CopyOnWriteArrayList<>();
+    private MongoClient client;
+    private MongoCollection<Question> questions;
+
+    @BeforeAll
+    static void seed() {
+        mongo = InMemoryMongo.start();
+
+        MongoCollection<Document> collection = mongo.database().getCollection(Question.COLLECTION_NAME);
+        List<Document> chunk = new ArrayList<>(10_000);
+        for (long threadId = 1; threadId <= FIXTURE_SIZE; threadId++) {
+            chunk.add(new Document("threadId", threadId).append("title", "Question " + threadId));
+            if (chunk.size() == 10_000) {
+                collection.insertMany(chunk);
+                chunk.clear();
+            }
+        }
+    }
+
+    @AfterAll
+    static void stop() {
+        mongo.close();
+    }
+
+    /** A client of its own that counts the documents each reply carries. */
+    @BeforeEach
+    void connect() {
+        CommandListener listener = new CommandListener() {
+            @Override
+            public void commandStarted(CommandStartedEvent event) {
+                commands.add(event.getCommandName());
+            }
+
+            @Override
+            public void commandSucceeded(CommandSucceededEvent event) {
+                BsonDocument cursor = event.getResponse().getDocument("cursor", null);
+                if (cursor != null) {
+                    BsonArray batch = cursor.containsKey("firstBatch")
+                            ? cursor.getArray("firstBatch") : cursor.getArray("nextBatch");
+                    documentsReceived.addAndGet(batch.size());
+                }
+            }
+
+            @Override
+            public void commandFailed(CommandFailedEvent event) {
+            }
+        };
+
+        client = MongoClients.create(MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(mongo.uri()))
+                .codecRegistry(fromRegistries(fromProviders(new ModelCodecProvider()),
+                        MongoClientSettings.getDefaultCodecRegistry()))
+                .addCommandListener(listener)
+                .build());
+        questions = client.getDatabase("reppy").getCollection(Question.COLLECTION_NAME, Question.class);
+    }
+
+    @AfterEach
+    void disconnect() {
+        client.close();
+    }
+
+    @Test
+    void walksAMillionDocumentsHoldingAtMostOneBatch() {
+        long consumed = 0;
+        long threadIdSum = 0;
+        long mostBuffered = 0;
+
+        try (Stream<Question> stream = ModelDao.stream(questions, new Document(),
+                Projections.include("threadId"), BATCH_SIZE)) {
+            Iterator<Question> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Question question = iterator.next();
+                consumed++;
+                threadIdSum += question.getThreadId();
+                assertNull(question.getTitle(), "the projection leaves the title on the server");
+
+                mostBuffered = Math.max(mostBuffered, documentsReceived.get() - consumed);
+            }
+        }
+
+        assertEquals(FIXTURE_SIZE, consumed);
+        assertEquals((long) FIXTURE_SIZE * (FIXTURE_SIZE + 1) / 2, threadIdSum);
+        assertTrue(mostBuffered < BATCH_SIZE, "buffered " + mostBuffered + " documents ahead of the consumer");
+        assertTrue(commands.stream().filter("getMore"::equals).count() >= FIXTURE_SIZE / BATCH_SIZE - 1);
+    }
+
+    @Test
+    void closingTheStreamEarlyKillsTheServerCursor() {
+        try (Stream<Question> stream = ModelDao.stream(questions, new Document(),
+                Projections.include("threadId"), BATCH_SIZE)) {
+            assertEquals(10, stream.limit(10).count());
+        }
+
+        assertTrue(commands.contains("killCursors"), "commands sent: " + commands);
+        assertEquals(BATCH_SIZE, documentsReceived.get());
+    }
+
+    @Test
+    void aFailingConsumerStillClosesTheCursorAndReportsTheStream() {
+        List<String> operations = new CopyOnWriteArrayList<>();
+        ModelDao.setMetrics((operation, collectionName, durationNanos) -> operations.add(operation + ":" + collectionName));
+
+        try {
+            assertThrows(IllegalStateException.class, () -> {
+                try (Stream<Question> stream = ModelDao.stream(questions, new Document(),
+                        Projections.include("threadId"), BATCH_SIZE)) {
+                    stream.forEach(question -> {
+                        if (question.getThreadId() == 1500) {
+                            throw new IllegalStateException("consumer failed");
+                        }
+                    });
+                }
+            });
+        } finally {
+            ModelDao.setMetrics(null);
+        }
+
+        assertTrue(commands.contains("killCursors"), "commands sent: " + commands);
+        assertTrue(operations.contains("stream:questions"), "operations: " + operations);
+    }
+}
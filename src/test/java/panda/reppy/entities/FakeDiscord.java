@@ -0,0 +1,92 @@
+package panda.reppy.entities;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.ThreadChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * FakeDiscord builds JDA events and entities without a gateway connection, like the FakeEvents
+ * of the benchmarks. Threads record what is sent to them, every request completes at once.
+ */
+final class FakeDiscord {
+
+    private static final JDA JDA_STUB = stub(JDA.class, 0, Collections.emptyMap());
+
+    private FakeDiscord() {}
+
+    static MessageReceivedEvent messageReceived(long channelId, long authorId, String content) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getChannel", stub(MessageChannel.class, channelId, Collections.emptyMap()));
+        answers.put("getAuthor", stub(User.class, authorId, Collections.emptyMap()));
+        answers.put("getContentRaw", content);
+
+        return new MessageReceivedEvent(JDA_STUB, 0, stub(Message.class, 0, answers));
+    }
+
+    /** A thread channel whose sent messages are appended to the list. */
+    static ThreadChannel thread(long threadId, List<String> sent) {
+        Message message = stub(Message.class, threadId, Map.of(
+                "pin", stub(RestAction.class, 0, Collections.emptyMap()),
+                "editMessage", action(null)));
+
+        return (ThreadChannel) Proxy.newProxyInstance(FakeDiscord.class.getClassLoader(),
+                new Class<?>[]{ThreadChannel.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("sendMessage")) {
+                        sent.add(args[0].toString());
+                        return action(message);
+                    }
+                    return answerDefault(proxy, method.getName(), method.getReturnType(), threadId, args);
+                });
+    }
+
+    static List<String> newSentList() {
+        return new CopyOnWriteArrayList<>();
+    }
+
+    private static MessageAction action(Message result) {
+        return stub(MessageAction.class, 0, Map.of("submit", CompletableFuture.completedFuture(result)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, long id, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(FakeDiscord.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> answers.containsKey(method.getName())
+                        ? answers.get(method.getName())
+                        : answerDefault(proxy, method.getName(), method.getReturnType(), id, args));
+    }
+
+    private static Object answerDefault(Object proxy, String name, Class<?> returnType, long id, Object[] args) {
+        switch (name) {
+            case "getIdLong":
+                return id;
+            case "getId":
+                return Long.toUnsignedString(id);
+            case "hashCode":
+                return Long.hashCode(id);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "Fake(" + id + ")";
+            default:
+                break;
+        }
+
+        if (returnType == boolean.class) return false;
+        if (returnType == long.class) return 0L;
+        if (returnType == int.class) return 0;
+        return null;
+    }
+}
@@ -0,0 +1,200 @@
+package panda.reppy.entities;
+
+import net.dv8tion.jda.api.entities.ThreadChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import panda.reppy.flags.QuestionState;
+import panda.reppy.flags.StageState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives thousands of question builders at once through one MessageWaiter and one shared
+ * QuestionConversation, the way PostQuestion wires them.
+ */
+class QuestionConversationLoadTest {
+
+    private static final int BUILDERS = 5000;
+    private static final int FEEDERS = 8;
+    private static final long THREAD_BASE = 900_000_000_000_000_000L;
+    private static final long MEMBER_BASE = 800_000_000_000_000_000L;
+
+    private final Map<Long, AtomicInteger> finished = new ConcurrentHashMap<>();
+    private final AtomicInteger quits = new AtomicInteger();
+    private final AtomicInteger titlesSet = new AtomicInteger();
+
+    private MessageWaiter waiter;
+    private QuestionConversation conversation;
+    private List<QuestionSession> sessions;
+    private List<List<String>> sent;
+
+    @BeforeEach
+    void attachBuilders() {
+        waiter = new MessageWaiter();
+        conversation = new QuestionConversation(new QuestionConversation.Listener() {
+            @Override
+            public void onDone(QuestionSession session) {
+                finished.computeIfAbsent(session.getMemberId(), id -> new AtomicInteger()).incrementAndGet();
+                session.detach();
+            }
+
+            @Override
+            public void onQuit(QuestionSession session) {
+                quits.incrementAndGet();
+                session.detach();
+            }
+
+            @Override
+            public void onTitleSet(QuestionSession session) {
+                titlesSet.incrementAndGet();
+            }
+        });
+
+        sessions = new ArrayList<>(BUILDERS);
+        sent = new ArrayList<>(BUILDERS);
+        for (int i = 0; i < BUILDERS; i++) {
+            long memberId = MEMBER_BASE + i;
+            long threadId = THREAD_BASE + i;
+            List<String> messages = FakeDiscord.newSentList();
+            ThreadChannel thread = FakeDiscord.thread(threadId, messages);
+
+            QuestionSession session = new QuestionSession(memberId, new QuestionBuilder(memberId), QuestionState.ASKING);
+            MessageWaiter.Subscription subscription = waiter.subscribe(threadId, memberId,
+                    e -> conversation.route(session, e.getMessage().getContentRaw()),
+                    5, TimeUnit.MINUTES, () -> {});
+            session.attach(thread, "<@" + memberId + ">", subscription);
+            conversation.begin(session);
+
+            sessions.add(session);
+            sent.add(messages);
+        }
+    }
+
+    @AfterEach
+    void detachBuilders() {
+        sessions.forEach(QuestionSession::detach);
+    }
+
+    @Test
+    void everyConcurrentBuilderFinishesItsOwnQuestion() throws Exception {
+        assertEquals(BUILDERS, waiter.getWaitingCount());
+
+        // Each feeder owns a slice of builders and interleaves them one reply at a time.
+        List<String[]> scripts = new ArrayList<>(BUILDERS);
+        for (int i = 0; i < BUILDERS; i++) {
+            scripts.add(script(i));
+        }
+        int steps = scripts.get(0).length;
+
+        long start = System.nanoTime();
+        ExecutorService feeders = Executors.newFixedThreadPool(FEEDERS);
+        List<Future<?>> work = new ArrayList<>();
+        for (int feeder = 0; feeder < FEEDERS; feeder++) {
+            int first = feeder;
+            work.add(feeders.submit(() -> {
+                for (int step = 0; step < steps; step++) {
+                    for (int i = first; i < BUILDERS; i += FEEDERS) {
+                        if (step == steps - 1) {
+                            // Before "done" the builder still runs on its single subscription.
+                            assertEquals(StageState.MENU, sessions.get(i).getStage());
+                        }
+                        waiter.onGuildMessageReceived(FakeDiscord.messageReceived(THREAD_BASE + i,
+                                MEMBER_BASE + i, scripts.get(i)[step]));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : work) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        feeders.shutdown();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("%d builders, %d replies each, in %d ms%n", BUILDERS, steps, elapsedMillis);
+
+        assertEquals(BUILDERS, finished.size());
+        assertTrue(finished.values().stream().allMatch(count -> count.get() == 1), "a builder finished twice");
+        assertEquals(0, quits.get());
+        assertEquals(BUILDERS, titlesSet.get());
+        assertEquals(0, waiter.getWaitingCount(), "finished builders must release their subscription");
+
+        int restCalls = sessions.get(0).getRestCalls();
+        for (int i = 0; i < BUILDERS; i++) {
+            QuestionSession session = sessions.get(i);
+            QuestionBuilder builder = session.getBuilder();
+
+            assertEquals(StageState.FINISHED, session.getStage());
+            assertEquals(title(i), builder.getTitle(), "builder " + i + " got another builder's title");
+            assertEquals(body(i), builder.getBody());
+            assertTrue(builder.getCodeblock().contains("print(" + i + ")"), builder.getCodeblock());
+            assertNull(builder.getOutput());
+            assertEquals(restCalls, session.getRestCalls(), "builder " + i + " made a different number of requests");
+        }
+    }
+
+    @Test
+    void repliesAfterQuittingAreIgnored() {
+        QuestionSession session = sessions.get(0);
+        List<String> messages = sent.get(0);
+
+        waiter.onGuildMessageReceived(FakeDiscord.messageReceived(THREAD_BASE, MEMBER_BASE, "quit"));
+        int sentAfterQuit = messages.size();
+        waiter.onGuildMessageReceived(FakeDiscord.messageReceived(THREAD_BASE, MEMBER_BASE, "title"));
+
+        assertEquals(1, quits.get());
+        assertEquals(StageState.FINISHED, session.getStage());
+        assertEquals(sentAfterQuit, messages.size());
+        assertEquals(BUILDERS - 1, waiter.getWaitingCount());
+    }
+
+    @Test
+    void backKeepsTheFieldAndReportsEveryProblemInOneMessage() {
+        QuestionSession session = sessions.get(1);
+        List<String> messages = sent.get(1);
+        String[] replies = {"title", "A title with enough words to pass", "title", "back", "done"};
+        for (String reply : replies) {
+            waiter.onGuildMessageReceived(FakeDiscord.messageReceived(THREAD_BASE + 1, MEMBER_BASE + 1, reply));
+        }
+
+        assertEquals("A title with enough words to pass", session.getBuilder().getTitle());
+        assertEquals(StageState.MENU, session.getStage());
+        String problems = messages.get(messages.size() - 1);
+        assertTrue(problems.startsWith("Body is unset"), problems);
+        assertEquals(BUILDERS, waiter.getWaitingCount(), "back must not register another waiter");
+    }
+
+    private static String[] script(int i) {
+        return new String[]{
+                "done",
+                "title", title(i),
+                "title", "back",
+                "body", body(i),
+                "codeblock", "```lua\nprint(" + i + ")\n```",
+                "done"
+        };
+    }
+
+    private static String title(int i) {
+        return "How do I tween a part along a curved path, take " + i;
+    }
+
+    private static String body(int i) {
+        StringBuilder body = new StringBuilder("Builder " + i + " asks:");
+        for (int word = 0; word < 30; word++) {
+            body.append(" word").append(word);
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package panda.reppy.entities;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import panda.reppy.flags.QuestionState;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class QuestionSessionStoreTest {
+
+    private static final long IDLE_MEMBER = 500_000_000_000_000_001L;
+    private static final long ACTIVE_MEMBER = 500_000_000_000_000_002L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresDraftsWithinTheIdleTimeout() {
+        Path snapshot = directory.resolve("sessions.dat");
+        draft(new QuestionSessionStore(snapshot), IDLE_MEMBER).snapshot();
+
+        QuestionSessionStore restored = new QuestionSessionStore(snapshot);
+        QuestionSession session = restored.get(IDLE_MEMBER);
+        assertNotNull(session);
+        assertEquals(QuestionState.NOT_ASKING, session.getState());
+        assertEquals("A draft title that was never posted", session.getBuilder().getTitle());
+    }
+
+    @Test
+    void dropsDraftsIdleForLongerThanTheTimeoutOnLoad() throws InterruptedException {
+        Path snapshot = directory.resolve("sessions.dat");
+        draft(new QuestionSessionStore(snapshot, 50), IDLE_MEMBER).snapshot();
+        Thread.sleep(100);
+
+        QuestionSessionStore restored = new QuestionSessionStore(snapshot, 50);
+        assertNull(restored.get(IDLE_MEMBER));
+        assertEquals(0, restored.getSessionCount());
+    }
+
+    @Test
+    void expiresRestoredDraftsButNotLiveSessions() throws InterruptedException {
+        Path snapshot = directory.resolve("sessions.dat");
+        draft(new QuestionSessionStore(snapshot), IDLE_MEMBER).snapshot();
+
+        QuestionSessionStore restored = new QuestionSessionStore(snapshot, 200);
+        assertNotNull(restored.get(IDLE_MEMBER));
+        // Live sessions end through their MessageWaiter timeout instead.
+        assertNotNull(restored.start(ACTIVE_MEMBER));
+        Thread.sleep(300);
+
+        restored.expireDrafts();
+        assertNull(restored.get(IDLE_MEMBER));
+        assertNotNull(restored.get(ACTIVE_MEMBER));
+    }
+
+    private static QuestionSessionStore draft(final QuestionSessionStore store, final long memberId) {
+        store.start(memberId).getBuilder().setTitle("A draft title that was never posted");
+        return store;
+    }
+}